@@ -0,0 +1,303 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible benchmarks of the routing engine. Compile src/ and run
+ * from the project root:
+ *
+ *   java -cp out Bench orders data/usa.graph
+ *   java -cp out Bench orders synthetic:150 --shuffle
+ *
+ * The graph is a .graph file, or synthetic:N for an N by N lattice of
+ * junctions joined by chains of shape points, generated from a fixed
+ * seed. --shuffle renumbers the vertex lines at random first, as a file
+ * written without any spatial order would be. Every run draws its
+ * queries from the same seed, so runs are comparable with each other.
+ *
+ * orders compares the numberings of setVertexOrder: how far apart the
+ * ids of adjacent vertices are, then query times with each. The
+ * renumberings put junctions before shape points, so arcs between the
+ * two groups keep the mean gap high; the share of near arcs shows the
+ * locality the searches see.
+ *
+ * distance compares three ways to get the length of a route with each
+ * algorithm: routeDistance(route), routeResult().getDistance(), and
+ * networkDistance, whose search records no parents and builds no path.
+ *
+ * allocation compares the bytes a warmed-up route call allocates with
+ * the bytes of a copy of the list it returns, on a JVM that counts
+ * allocation per thread; with the search workspace reused the two match.
+ */
+public class Bench {
+    private static final long SEED = 25;
+    private static final int PASSES = 3;
+    // ids this close are likely to share cache lines and pages
+    private static final int NEAR = 1024;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: Bench orders|distance|allocation <file.graph | synthetic:N> [--shuffle]");
+            return;
+        }
+        File graph = args[1].startsWith("synthetic:")
+                ? synthetic(Integer.parseInt(args[1].substring("synthetic:".length())))
+                : new File(args[1]);
+        if (args.length > 2 && args[2].equals("--shuffle")) {
+            graph = shuffled(graph);
+        }
+        switch (args[0]) {
+            case "orders":
+                orders(graph);
+                break;
+            case "distance":
+                distance(graph);
+                break;
+            case "allocation":
+                allocation(graph);
+                break;
+            default:
+                System.out.println("unknown benchmark " + args[0]);
+        }
+    }
+
+    /** Locality and query times of each VertexOrder. */
+    private static void orders(File graph) throws Exception {
+        Graph parsed;
+        try (FileInputStream in = new FileInputStream(graph)) {
+            parsed = GraphFileParser.parse(in.getChannel(), false);
+        }
+        System.out.println(parsed.vertexCount + " vertices, " + parsed.neighbors.length / 2 + " edges");
+        System.out.println("id gap |u - v| over arcs: mean as a fraction of the vertex count, share within "
+                + NEAR + ":");
+        for (GraphProcessor.VertexOrder order : GraphProcessor.VertexOrder.values()) {
+            Graph g = order == GraphProcessor.VertexOrder.HILBERT
+                    ? parsed.renumbered(parsed.junctionsFirst(parsed.hilbertOrder()))
+                    : order == GraphProcessor.VertexOrder.CUTHILL_MCKEE
+                    ? parsed.renumbered(parsed.junctionsFirst(parsed.cuthillMcKeeOrder()))
+                    : parsed;
+            double gap = 0;
+            int near = 0;
+            for (int v = 0; v < g.vertexCount; v++) {
+                for (int e = g.offsets[v]; e < g.offsets[v + 1]; e++) {
+                    gap += Math.abs(g.neighbors[e] - v);
+                    near += Math.abs(g.neighbors[e] - v) <= NEAR ? 1 : 0;
+                }
+            }
+            System.out.printf("  %-14s %.4f %6.1f%%%n", order, gap / g.neighbors.length / g.vertexCount,
+                    100.0 * near / g.neighbors.length);
+        }
+
+        for (GraphProcessor.VertexOrder order : GraphProcessor.VertexOrder.values()) {
+            GraphProcessor driver = new GraphProcessor();
+            driver.setVertexOrder(order);
+            try (FileInputStream in = new FileInputStream(graph)) {
+                driver.initialize(in);
+            }
+            driver.buildLandmarks(16);
+            driver.buildContractionHierarchy();
+            List<Point[]> pairs = pairs(driver, 600);
+            List<Point> sources = new ArrayList<>();
+            List<Point> targets = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                sources.add(pairs.get(i)[0]);
+                targets.add(pairs.get(i)[1]);
+            }
+            System.out.println(order + ":");
+            System.out.printf("  full shortestPathTree  %10.1f ms%n", 1e-3 * microsPerQuery(20,
+                    i -> driver.shortestPathTree(sources.get(i), Double.POSITIVE_INFINITY)));
+            System.out.printf("  40x40 distanceMatrix   %10.1f ms%n", 1e-3 * microsPerQuery(1,
+                    i -> driver.distanceMatrix(sources, targets)));
+            for (GraphProcessor.Algorithm algorithm : GraphProcessor.Algorithm.values()) {
+                System.out.printf("  route %-19s %7.1f us/query%n", algorithm, microsPerQuery(pairs.size(),
+                        i -> driver.route(pairs.get(i)[0], pairs.get(i)[1], algorithm)));
+            }
+        }
+    }
+
+    /** Time to a route's length with and without building the route, for each algorithm. */
+    private static void distance(File graph) throws Exception {
+        GraphProcessor driver = new GraphProcessor();
+        try (FileInputStream in = new FileInputStream(graph)) {
+            driver.initialize(in);
+        }
+        driver.buildLandmarks(16);
+        driver.buildContractionHierarchy();
+        List<Point[]> pairs = pairs(driver, 600);
+        System.out.println("us/query: route+routeDistance / routeResult / networkDistance");
+        for (GraphProcessor.Algorithm algorithm : GraphProcessor.Algorithm.values()) {
+            driver.setAlgorithm(algorithm);
+            double route = microsPerQuery(pairs.size(),
+                    i -> driver.routeDistance(driver.route(pairs.get(i)[0], pairs.get(i)[1])));
+            double result = microsPerQuery(pairs.size(),
+                    i -> driver.routeResult(pairs.get(i)[0], pairs.get(i)[1]).getDistance());
+            double network = microsPerQuery(pairs.size(),
+                    i -> driver.networkDistance(pairs.get(i)[0], pairs.get(i)[1]));
+            System.out.printf("  %-19s %8.1f / %8.1f / %8.1f%n", algorithm, route, result, network);
+        }
+    }
+
+    /** Bytes allocated per route, against the bytes of an equal List of Points. */
+    private static void allocation(File graph) throws Exception {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("this JVM does not count allocated bytes per thread");
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        GraphProcessor driver = new GraphProcessor();
+        try (FileInputStream in = new FileInputStream(graph)) {
+            driver.initialize(in);
+        }
+        driver.buildLandmarks(16);
+        driver.buildContractionHierarchy();
+        List<Point[]> pairs = pairs(driver, 600);
+        System.out.println("bytes/query: route / copy of its result");
+        for (GraphProcessor.Algorithm algorithm : GraphProcessor.Algorithm.values()) {
+            long routeBytes = 0;
+            long resultBytes = 0;
+            for (int pass = 0; pass <= PASSES; pass++) {
+                for (Point[] pair : pairs) {
+                    long before = threads.getThreadAllocatedBytes(thread);
+                    List<Point> route = driver.route(pair[0], pair[1], algorithm);
+                    long routed = threads.getThreadAllocatedBytes(thread);
+                    List<Point> copy = new ArrayList<>(route.size());
+                    for (Point p : route) {
+                        copy.add(new Point(p.getLat(), p.getLon()));
+                    }
+                    long copied = threads.getThreadAllocatedBytes(thread);
+                    if (pass > 0) {
+                        routeBytes += routed - before;
+                        resultBytes += copied - routed;
+                    }
+                }
+            }
+            long queries = (long) PASSES * pairs.size();
+            System.out.printf("  %-19s %8d / %8d%n", algorithm, routeBytes / queries, resultBytes / queries);
+        }
+    }
+
+    /** A query to time, given its index. */
+    private interface Query {
+        void run(int i) throws Exception;
+    }
+
+    /** Runs queries 0 .. count - 1 PASSES times after a warm-up pass, and returns the best pass. */
+    private static double microsPerQuery(int count, Query query) throws Exception {
+        double best = Double.POSITIVE_INFINITY;
+        for (int pass = 0; pass <= PASSES; pass++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                query.run(i);
+            }
+            double micros = (System.nanoTime() - start) / 1e3 / count;
+            if (pass > 0) {
+                best = Math.min(best, micros);
+            }
+        }
+        return best;
+    }
+
+    /** count random pairs of distinct connected vertices, the same for every numbering. */
+    private static List<Point[]> pairs(GraphProcessor driver, int count) {
+        List<Point> points = new ArrayList<>(driver.kNearest(new Point(0, 0), Integer.MAX_VALUE));
+        Collections.sort(points);
+        Random random = new Random(SEED);
+        List<Point[]> pairs = new ArrayList<>();
+        while (pairs.size() < count) {
+            Point start = points.get(random.nextInt(points.size()));
+            Point end = points.get(random.nextInt(points.size()));
+            if (!start.equals(end) && driver.connected(start, end)) {
+                pairs.add(new Point[] {start, end});
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Writes an n by n lattice of junctions 0.01 degrees apart, each
+     * moved a little at random, where every lattice edge but a few
+     * becomes a chain of one to four arcs through shape points.
+     */
+    private static File synthetic(int n) throws IOException {
+        Random random = new Random(SEED);
+        List<String> vertices = new ArrayList<>();
+        List<String> edges = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                vertices.add("J " + (35 + 0.01 * i + 0.003 * random.nextDouble()) + " "
+                        + (-80 + 0.01 * j + 0.003 * random.nextDouble()));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                for (int d = 0; d < 2; d++) {
+                    int ni = i + 1 - d;
+                    int nj = j + d;
+                    if (ni == n || nj == n || random.nextInt(10) == 0) {
+                        continue;
+                    }
+                    String[] from = vertices.get(i * n + j).split(" ");
+                    String[] to = vertices.get(ni * n + nj).split(" ");
+                    double lat = Double.parseDouble(from[1]);
+                    double lon = Double.parseDouble(from[2]);
+                    double toLat = Double.parseDouble(to[1]);
+                    double toLon = Double.parseDouble(to[2]);
+                    int prev = i * n + j;
+                    int pieces = 1 + random.nextInt(4);
+                    for (int k = 1; k < pieces; k++) {
+                        double t = (double) k / pieces;
+                        vertices.add("S " + (lat + t * (toLat - lat) + 0.0005 * random.nextGaussian()) + " "
+                                + (lon + t * (toLon - lon) + 0.0005 * random.nextGaussian()));
+                        edges.add(prev + " " + (vertices.size() - 1));
+                        prev = vertices.size() - 1;
+                    }
+                    edges.add(prev + " " + (ni * n + nj));
+                }
+            }
+        }
+        return write(vertices, edges);
+    }
+
+    /** A copy of graph with its vertex lines in random order and the edges renumbered to match. */
+    private static File shuffled(File graph) throws IOException {
+        List<String> lines = Files.readAllLines(graph.toPath());
+        String[] counts = lines.get(0).trim().split("\\s+");
+        int n = Integer.parseInt(counts[0]);
+        int m = Integer.parseInt(counts[1]);
+        List<Integer> order = new ArrayList<>();
+        for (int v = 0; v < n; v++) {
+            order.add(v);
+        }
+        Collections.shuffle(order, new Random(SEED));
+        int[] newId = new int[n];
+        List<String> vertices = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            newId[order.get(i)] = i;
+            vertices.add(lines.get(1 + order.get(i)));
+        }
+        List<String> edges = new ArrayList<>();
+        for (int k = 0; k < m; k++) {
+            String[] edge = lines.get(1 + n + k).trim().split("\\s+", 3);
+            edges.add(newId[Integer.parseInt(edge[0])] + " " + newId[Integer.parseInt(edge[1])]
+                    + (edge.length > 2 ? " " + edge[2] : ""));
+        }
+        return write(vertices, edges);
+    }
+
+    private static File write(List<String> vertices, List<String> edges) throws IOException {
+        File file = File.createTempFile("bench", ".graph");
+        file.deleteOnExit();
+        StringBuilder text = new StringBuilder(vertices.size() + " " + edges.size() + "\n");
+        vertices.forEach(v -> text.append(v).append('\n'));
+        edges.forEach(e -> text.append(e).append('\n'));
+        Files.write(file.toPath(), text.toString().getBytes());
+        return file;
+    }
+}
@@ -0,0 +1,280 @@
+import java.util.Arrays;
+
+/**
+ * Routing graph with every maximal chain of degree-2 vertices collapsed
+ * into one arc. Such vertices only trace the shape of a road between
+ * junctions, so the reduced graph keeps the vertex ids and coordinates
+ * of the full one but gives a degree-2 vertex no arcs; each arc between
+ * junctions weighs as much as the chain it stands for, and lists the
+ * chain's interior vertices, tail to head, in chainVertices with their
+ * distances from the tail in chainDist. A chain is stored as two arcs,
+ * one per direction, and each interior vertex records its place on the
+ * one stored first. A route from or to an interior vertex starts or
+ * finishes at both ends of its chain, with the cost along the chain to
+ * each, as a route between points on edges does. A cycle made only of
+ * degree-2 vertices keeps one of them as a junction.
+ */
+final class Chains {
+    final Graph graph;
+    // interior vertices of arc e of graph: chainVertices[chainOffsets[e], chainOffsets[e + 1])
+    final int[] chainOffsets;
+    final int[] chainVertices;
+    final double[] chainDist;
+    // index in chainVertices of each interior vertex on the first arc of its chain, -1 at junctions
+    private final int[] chainIndex;
+
+    private Chains(Graph graph, int[] chainOffsets, int[] chainVertices, double[] chainDist, int[] chainIndex) {
+        this.graph = graph;
+        this.chainOffsets = chainOffsets;
+        this.chainVertices = chainVertices;
+        this.chainDist = chainDist;
+        this.chainIndex = chainIndex;
+    }
+
+    /** The chains of g, or null if g has no vertex of degree 2. */
+    static Chains build(Graph g) {
+        int n = g.vertexCount;
+        boolean[] junction = new boolean[n];
+        int interior = 0;
+        for(int v = 0; v < n; v++){
+            junction[v] = g.offsets[v + 1] - g.offsets[v] != 2;
+            interior += junction[v] ? 0 : 1;
+        }
+        if(interior == 0){
+            return null;
+        }
+
+        // degree-2 vertices not reached from any junction lie on cycles of their own
+        boolean[] seen = new boolean[n];
+        for(int u = 0; u < n; u++){
+            if(junction[u]){
+                for(int e = g.offsets[u]; e < g.offsets[u + 1]; e++){
+                    for(int prev = u, cur = g.neighbors[e]; !junction[cur]; ){
+                        seen[cur] = true;
+                        int next = g.neighbors[nextArc(g, prev, cur)];
+                        prev = cur;
+                        cur = next;
+                    }
+                }
+            }
+        }
+        for(int v = 0; v < n; v++){
+            if(!junction[v] && !seen[v]){
+                junction[v] = true;
+                interior--;
+                for(int prev = v, cur = g.neighbors[g.offsets[v]]; cur != v; ){
+                    seen[cur] = true;
+                    int next = g.neighbors[nextArc(g, prev, cur)];
+                    prev = cur;
+                    cur = next;
+                }
+            }
+        }
+
+        int[] offsets = new int[n + 1];
+        for(int v = 0; v < n; v++){
+            offsets[v + 1] = offsets[v] + (junction[v] ? g.offsets[v + 1] - g.offsets[v] : 0);
+        }
+        int arcs = offsets[n];
+        int[] neighbors = new int[arcs];
+        double[] weights = new double[arcs];
+        int[] chainOffsets = new int[arcs + 1];
+        int[] chainVertices = new int[2 * interior];
+        double[] chainDist = new double[2 * interior];
+        int[] chainIndex = new int[n];
+        Arrays.fill(chainIndex, -1);
+        int a = 0;
+        int k = 0;
+        for(int u = 0; u < n; u++){
+            if(!junction[u]){
+                continue;
+            }
+            for(int e = g.offsets[u]; e < g.offsets[u + 1]; e++){
+                chainOffsets[a] = k;
+                int prev = u;
+                int cur = g.neighbors[e];
+                double d = g.weight(e);
+                while(!junction[cur]){
+                    chainVertices[k] = cur;
+                    chainDist[k] = d;
+                    if(chainIndex[cur] < 0){
+                        chainIndex[cur] = k;
+                    }
+                    k++;
+                    int step = nextArc(g, prev, cur);
+                    d += g.weight(step);
+                    prev = cur;
+                    cur = g.neighbors[step];
+                }
+                neighbors[a] = cur;
+                weights[a++] = d;
+            }
+        }
+        chainOffsets[arcs] = k;
+        // chain sums of float weights keep their rounding, and A* must allow for it
+        Graph reduced = new Graph(g.lat, g.lon, offsets, neighbors, weights, null, g.roundedWeights,
+                g.byCoordinate, g.nameOffsets, g.nameBytes);
+        return new Chains(reduced, chainOffsets, chainVertices, chainDist, chainIndex);
+    }
+
+    /** The arc leaving degree-2 vertex cur that does not lead back to prev. */
+    private static int nextArc(Graph g, int prev, int cur) {
+        int e = g.offsets[cur];
+        return g.neighbors[e] == prev ? e + 1 : e;
+    }
+
+    /**
+     * Where a route from or to v enters the reduced graph: v itself at
+     * cost 0 if it is a junction (twice, so there are always two
+     * entries), otherwise the tail and head of its chain's first arc
+     * with the distance along the chain to each.
+     */
+    void ends(int v, int[] ends, double[] cost) {
+        int k = chainIndex[v];
+        if(k < 0){
+            ends[0] = v;
+            ends[1] = v;
+            cost[0] = 0;
+            cost[1] = 0;
+            return;
+        }
+        int e = arcAt(k);
+        ends[0] = tailOf(e);
+        cost[0] = chainDist[k];
+        ends[1] = graph.neighbors[e];
+        cost[1] = graph.weight(e) - chainDist[k];
+    }
+
+    /** Distance from s to t along the chain they are both inside, or infinite if they are not. */
+    double along(int s, int t) {
+        int ks = chainIndex[s];
+        int kt = chainIndex[t];
+        if(ks < 0 || kt < 0 || arcAt(ks) != arcAt(kt)){
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.abs(chainDist[kt] - chainDist[ks]);
+    }
+
+    /**
+     * Shortest path from s to t with algorithm over the reduced graph,
+     * expanded to vertex ids of the full graph, or null if there is
+     * none. Leaves its length in w.reachedDistance.
+     */
+    int[] route(Network net, GraphProcessor.Algorithm algorithm, int s, int t, SearchWorkspace w) {
+        ends(s, w.sourceEnds, w.sourceCost);
+        ends(t, w.targetEnds, w.targetCost);
+        double direct = along(s, t);
+        int reached = PathSearch.search(net, graph, algorithm, w.sourceEnds, w.sourceCost, w.targetEnds,
+                w.targetCost, w);
+        if(reached < 0 || direct <= w.reachedDistance){
+            if(direct == Double.POSITIVE_INFINITY){
+                return null;
+            }
+            int ks = chainIndex[s];
+            int kt = chainIndex[t];
+            int step = ks < kt ? 1 : -1;
+            int[] path = new int[Math.abs(kt - ks) + 1];
+            for(int i = 0, k = ks; i < path.length; i++, k += step){
+                path[i] = chainVertices[k];
+            }
+            w.reachedDistance = direct;
+            return path;
+        }
+
+        // junctions from the last back to the first, with the arcs between them on the stack
+        int first = w.targetEnds[reached];
+        int length = 1;
+        w.stackSize = 0;
+        for(int p = w.parent(first); p != -1; p = w.parent(first)){
+            int e = arc(p, first);
+            w.push(e);
+            length += chainOffsets[e + 1] - chainOffsets[e] + 1;
+            first = p;
+        }
+        int ks = chainIndex[s];
+        int kt = chainIndex[t];
+        int es = ks < 0 ? -1 : arcAt(ks);
+        int et = kt < 0 ? -1 : arcAt(kt);
+        // whether s leaves toward the tail of its arc; a loop starts from the cheaper end, as the search does
+        boolean sourceTail = first == w.sourceEnds[0]
+                && (w.sourceEnds[0] != w.sourceEnds[1] || w.sourceCost[0] <= w.sourceCost[1]);
+        if(ks >= 0){
+            length += sourceTail ? ks - chainOffsets[es] + 1 : chainOffsets[es + 1] - ks;
+        }
+        if(kt >= 0){
+            length += reached == 0 ? kt - chainOffsets[et] + 1 : chainOffsets[et + 1] - kt;
+        }
+
+        int[] path = new int[length];
+        int i = 0;
+        if(ks >= 0){
+            path[i++] = s;
+            if(sourceTail){
+                for(int k = ks - 1; k >= chainOffsets[es]; k--){
+                    path[i++] = chainVertices[k];
+                }
+            } else {
+                for(int k = ks + 1; k < chainOffsets[es + 1]; k++){
+                    path[i++] = chainVertices[k];
+                }
+            }
+        }
+        path[i++] = first;
+        while(w.stackSize > 0){
+            int e = w.stack[--w.stackSize];
+            for(int k = chainOffsets[e]; k < chainOffsets[e + 1]; k++){
+                path[i++] = chainVertices[k];
+            }
+            path[i++] = graph.neighbors[e];
+        }
+        if(kt >= 0){
+            if(reached == 0){
+                for(int k = chainOffsets[et]; k < kt; k++){
+                    path[i++] = chainVertices[k];
+                }
+            } else {
+                for(int k = chainOffsets[et + 1] - 1; k > kt; k--){
+                    path[i++] = chainVertices[k];
+                }
+            }
+            path[i++] = t;
+        }
+        return path;
+    }
+
+    /** The lightest arc from p to q, the one a search that settled q from p went along. */
+    private int arc(int p, int q) {
+        int best = -1;
+        for(int e = graph.offsets[p]; e < graph.offsets[p + 1]; e++){
+            if(graph.neighbors[e] == q && (best < 0 || graph.weights[e] < graph.weights[best])){
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    /** The arc whose interior holds chainVertices[k]. */
+    private int arcAt(int k) {
+        return lastAtMost(chainOffsets, chainOffsets.length - 1, k);
+    }
+
+    /** The junction arc e leaves from. */
+    private int tailOf(int e) {
+        return lastAtMost(graph.offsets, graph.vertexCount, e);
+    }
+
+    /** The largest i < length with sorted[i] <= key. */
+    private static int lastAtMost(int[] sorted, int length, int key) {
+        int lo = 0;
+        int hi = length - 1;
+        while(lo < hi){
+            int mid = (lo + hi + 1) >>> 1;
+            if(sorted[mid] <= key){
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,364 @@
+import java.util.Arrays;
+
+/**
+ * Contraction hierarchy over the graph. Vertices are contracted one at a
+ * time, cheapest first, and whenever removing a vertex would lengthen a
+ * shortest path between two of its neighbors, a shortcut edge standing
+ * for the two-edge path through it is added. Every shortest path then
+ * has a version that only climbs in contraction order and then only
+ * descends, so a query is two small upward searches that meet at the
+ * top. The graph is undirected, so the downward graph searched from the
+ * target is the upward graph itself and only that one is stored, in CSR
+ * form.
+ */
+final class ContractionHierarchy {
+    // settled vertices a witness search may spend on proving a shortcut unnecessary
+    private static final int WITNESS_LIMIT = 400;
+    private static final int ESTIMATE_WITNESS_LIMIT = 60;
+
+    final int vertexCount;
+    // contraction order: rank[v] < rank[u] when v was contracted first
+    final int[] rank;
+    // arcs from each vertex to its neighbors of higher rank
+    final int[] upOffsets;
+    final int[] upNeighbors;
+    final double[] upWeights;
+    // for a shortcut arc the vertex it bypasses, -1 for an edge of the graph
+    final int[] upMiddle;
+
+    private ContractionHierarchy(int[] rank, int[] upOffsets, int[] upNeighbors, double[] upWeights, int[] upMiddle) {
+        this.vertexCount = rank.length;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upNeighbors = upNeighbors;
+        this.upWeights = upWeights;
+        this.upMiddle = upMiddle;
+    }
+
+    /**
+     * Contracts every vertex of g. The next vertex is the one with the
+     * smallest edge difference (shortcuts it needs minus edges it
+     * removes) plus the number of its neighbors already contracted and
+     * its level in the hierarchy so far, which spreads contraction
+     * evenly. Priorities are updated lazily: a vertex is re-evaluated
+     * when it reaches the front of the queue and put back if it is no
+     * longer the cheapest.
+     */
+    static ContractionHierarchy build(Graph g) {
+        Builder b = new Builder(g);
+        int n = g.vertexCount;
+        IndexedHeap order = new IndexedHeap(n);
+        for(int v = 0; v < n; v++){
+            order.push(v, b.priority(v));
+        }
+        int[] rank = new int[n];
+        int next = 0;
+        while(!order.isEmpty()){
+            int v = order.pop();
+            double priority = b.priority(v);
+            if(!order.isEmpty() && priority > order.minKey()){
+                order.push(v, priority);
+                continue;
+            }
+            rank[v] = next++;
+            b.contract(v);
+        }
+
+        int[] upOffsets = new int[n + 1];
+        for(int v = 0; v < n; v++){
+            upOffsets[v + 1] = upOffsets[v] + b.degree[v];
+        }
+        int[] upNeighbors = new int[upOffsets[n]];
+        double[] upWeights = new double[upOffsets[n]];
+        int[] upMiddle = new int[upOffsets[n]];
+        for(int v = 0; v < n; v++){
+            System.arraycopy(b.to[v], 0, upNeighbors, upOffsets[v], b.degree[v]);
+            System.arraycopy(b.weight[v], 0, upWeights, upOffsets[v], b.degree[v]);
+            System.arraycopy(b.middle[v], 0, upMiddle, upOffsets[v], b.degree[v]);
+        }
+        return new ContractionHierarchy(rank, upOffsets, upNeighbors, upWeights, upMiddle);
+    }
+
+    /**
+     * Same contract as PathSearch.search. Searches upward from the
+     * sources and from the targets, each side until its queue holds
+     * nothing shorter than the best meeting found, then unpacks the
+     * path through the best meeting vertex and relabels it as a
+     * forward search path, so w.dist and w.parent read as they would
+     * after Dijkstra along it.
+     */
+    int search(int[] sources, double[] initial, int[] targets, double[] targetCost, SearchWorkspace w) {
+        final int forward = SearchWorkspace.FORWARD;
+        final int backward = SearchWorkspace.BACKWARD;
+        w.reset();
+        for(int i = 0; i < sources.length; i++){
+            if(initial[i] < w.dist(forward, sources[i])){
+                w.label(forward, sources[i], initial[i], -1);
+                w.queue(forward).push(sources[i], initial[i]);
+            }
+        }
+        for(int i = 0; i < targets.length; i++){
+            if(targetCost[i] < w.dist(backward, targets[i])){
+                w.label(backward, targets[i], targetCost[i], -1);
+                w.queue(backward).push(targets[i], targetCost[i]);
+            }
+        }
+
+        double mu = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        boolean turn = true;
+        while(true){
+            IndexedHeap forwardQueue = w.queue(forward);
+            IndexedHeap backwardQueue = w.queue(backward);
+            boolean forwardOpen = !forwardQueue.isEmpty() && forwardQueue.minKey() < mu;
+            boolean backwardOpen = !backwardQueue.isEmpty() && backwardQueue.minKey() < mu;
+            if(!forwardOpen && !backwardOpen){
+                break;
+            }
+            int side = forwardOpen && (turn || !backwardOpen) ? forward : backward;
+            turn = !turn;
+            IndexedHeap queue = w.queue(side);
+            int v = queue.pop();
+            double d = w.dist(side, v);
+            if(d + w.dist(1 - side, v) < mu){
+                mu = d + w.dist(1 - side, v);
+                meet = v;
+            }
+            for(int e = upOffsets[v]; e < upOffsets[v + 1]; e++){
+                int u = upNeighbors[e];
+                double candidate = d + upWeights[e];
+                if(candidate < w.dist(side, u)){
+                    w.label(side, u, candidate, v);
+                    queue.push(u, candidate);
+                }
+            }
+        }
+        if(meet < 0){
+            return -1;
+        }
+        w.reachedDistance = mu;
+        if(!w.keepParents){
+            return 0;
+        }
+
+        // hierarchy vertices from the source up to meet and down to the target
+        w.stackSize = 0;
+        for(int v = meet; v != -1; v = w.parent(forward, v)){
+            w.push(v);
+        }
+        w.pathLength = 0;
+        int first = w.stack[--w.stackSize];
+        w.append(first, w.dist(forward, first));
+        while(w.stackSize > 0){
+            unpack(w, w.path[w.pathLength - 1], w.stack[--w.stackSize]);
+        }
+        for(int v = w.parent(backward, meet); v != -1; v = w.parent(backward, v)){
+            unpack(w, w.path[w.pathLength - 1], v);
+        }
+
+        for(int i = 0; i < w.pathLength; i++){
+            w.label(forward, w.path[i], w.pathDist[i], i == 0 ? -1 : w.path[i - 1]);
+        }
+        int last = w.path[w.pathLength - 1];
+        int reached = -1;
+        for(int i = 0; i < targets.length; i++){
+            if(targets[i] == last && (reached < 0 || targetCost[i] < targetCost[reached])){
+                reached = i;
+            }
+        }
+        return reached;
+    }
+
+    /** Appends to w.path the original edges that the hierarchy arc from a to b stands for, a excluded. */
+    private void unpack(SearchWorkspace w, int a, int b) {
+        int base = w.stackSize;
+        w.push(b);
+        int from = a;
+        while(w.stackSize > base){
+            int to = w.stack[w.stackSize - 1];
+            int e = arc(from, to);
+            int m = upMiddle[e];
+            if(m < 0){
+                w.stackSize--;
+                w.append(to, w.pathDist[w.pathLength - 1] + upWeights[e]);
+                from = to;
+            } else {
+                w.push(m);
+            }
+        }
+    }
+
+    /** The arc of the upward graph joining a and b, which leaves whichever was contracted first. */
+    private int arc(int a, int b) {
+        int low = rank[a] < rank[b] ? a : b;
+        int high = low == a ? b : a;
+        for(int e = upOffsets[low]; e < upOffsets[low + 1]; e++){
+            if(upNeighbors[e] == high){
+                return e;
+            }
+        }
+        throw new IllegalStateException("No hierarchy arc between " + a + " and " + b);
+    }
+
+    /**
+     * The graph as it shrinks during contraction: per-vertex growable
+     * lists of the neighbors not yet contracted, holding one arc per
+     * neighbor with the shortest weight between them. Once a vertex is
+     * contracted its lists are frozen and become its upward arcs.
+     */
+    private static final class Builder {
+        final int[][] to;
+        final double[][] weight;
+        final int[][] middle;
+        final int[] degree;
+        final int[] contractedNeighbors;
+        final int[] level;
+        // witness search state, reset through the touched list after each search
+        final double[] witness;
+        final int[] touched;
+        int touchedCount;
+        final IndexedHeap queue;
+
+        Builder(Graph g) {
+            int n = g.vertexCount;
+            to = new int[n][];
+            weight = new double[n][];
+            middle = new int[n][];
+            degree = new int[n];
+            contractedNeighbors = new int[n];
+            level = new int[n];
+            witness = new double[n];
+            touched = new int[n];
+            queue = new IndexedHeap(n);
+            Arrays.fill(witness, Double.POSITIVE_INFINITY);
+            for(int v = 0; v < n; v++){
+                int arcs = g.offsets[v + 1] - g.offsets[v];
+                to[v] = new int[Math.max(arcs, 2)];
+                weight[v] = new double[to[v].length];
+                middle[v] = new int[to[v].length];
+                for(int e = g.offsets[v]; e < g.offsets[v + 1]; e++){
+                    if(g.neighbors[e] != v){
+                        connect(v, g.neighbors[e], g.weight(e), -1);
+                    }
+                }
+            }
+        }
+
+        private int find(int v, int u) {
+            for(int i = 0; i < degree[v]; i++){
+                if(to[v][i] == u){
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** Records an arc from v to u unless a shorter or equal one is already there. */
+        private void connect(int v, int u, double w, int via) {
+            int i = find(v, u);
+            if(i < 0){
+                if(degree[v] == to[v].length){
+                    to[v] = Arrays.copyOf(to[v], 2 * degree[v]);
+                    weight[v] = Arrays.copyOf(weight[v], 2 * degree[v]);
+                    middle[v] = Arrays.copyOf(middle[v], 2 * degree[v]);
+                }
+                i = degree[v]++;
+            } else if(weight[v][i] <= w){
+                return;
+            }
+            to[v][i] = u;
+            weight[v][i] = w;
+            middle[v][i] = via;
+        }
+
+        private void disconnect(int v, int u) {
+            int i = find(v, u);
+            int last = --degree[v];
+            to[v][i] = to[v][last];
+            weight[v][i] = weight[v][last];
+            middle[v][i] = middle[v][last];
+        }
+
+        /**
+         * Dijkstra from source over the uncontracted graph without
+         * skip, stopping past limit or after settling maxSettled
+         * vertices; witness[] then holds upper bounds on the distances.
+         */
+        private void witnessSearch(int source, int skip, double limit, int maxSettled) {
+            witness[source] = 0;
+            touched[touchedCount++] = source;
+            queue.push(source, 0);
+            int settled = 0;
+            while(!queue.isEmpty() && queue.minKey() <= limit && settled++ < maxSettled){
+                int v = queue.pop();
+                for(int i = 0; i < degree[v]; i++){
+                    int u = to[v][i];
+                    double candidate = witness[v] + weight[v][i];
+                    if(u != skip && candidate < witness[u]){
+                        if(witness[u] == Double.POSITIVE_INFINITY){
+                            touched[touchedCount++] = u;
+                        }
+                        witness[u] = candidate;
+                        queue.push(u, candidate);
+                    }
+                }
+            }
+            queue.clear();
+        }
+
+        private void clearWitness() {
+            for(int i = 0; i < touchedCount; i++){
+                witness[touched[i]] = Double.POSITIVE_INFINITY;
+            }
+            touchedCount = 0;
+        }
+
+        /**
+         * Finds the shortcuts contracting v needs: for each pair of its
+         * neighbors, the path through v unless a witness search finds
+         * one at least as short around it. Adds them when add is set.
+         * @return the number of shortcuts
+         */
+        private int shortcuts(int v, boolean add, int maxSettled) {
+            int count = 0;
+            for(int i = 0; i < degree[v]; i++){
+                int u = to[v][i];
+                double limit = 0;
+                for(int j = i + 1; j < degree[v]; j++){
+                    limit = Math.max(limit, weight[v][i] + weight[v][j]);
+                }
+                if(i + 1 == degree[v]){
+                    continue;
+                }
+                witnessSearch(u, v, limit, maxSettled);
+                for(int j = i + 1; j < degree[v]; j++){
+                    double through = weight[v][i] + weight[v][j];
+                    int x = to[v][j];
+                    if(witness[x] > through){
+                        count++;
+                        if(add){
+                            connect(u, x, through, v);
+                            connect(x, u, through, v);
+                        }
+                    }
+                }
+                clearWitness();
+            }
+            return count;
+        }
+
+        double priority(int v) {
+            return shortcuts(v, false, ESTIMATE_WITNESS_LIMIT) - degree[v] + contractedNeighbors[v] + level[v];
+        }
+
+        void contract(int v) {
+            shortcuts(v, true, WITNESS_LIMIT);
+            for(int i = 0; i < degree[v]; i++){
+                int u = to[v][i];
+                disconnect(u, v);
+                contractedNeighbors[u]++;
+                level[u] = Math.max(level[u], level[v] + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Many-to-many distances for distanceMatrix. With a contraction
+ * hierarchy it uses buckets: the upward search space of every target is
+ * recorded at the vertices it reaches, and the upward search from a
+ * source then meets all targets at once by scanning the buckets of the
+ * vertices it settles. Without one, each source runs Dijkstra until
+ * every target in its component is settled. Either way the sources are
+ * independent and run in parallel on the common fork-join pool.
+ */
+final class DistanceMatrix {
+    private DistanceMatrix() {
+    }
+
+    static double[][] compute(Network net, int[] sources, int[] targets) {
+        Graph g = net.graph;
+        int[] component = net.component;
+        ContractionHierarchy ch = net.hierarchy;
+        double[][] result = new double[sources.length][targets.length];
+        int n = g.vertexCount;
+        if(ch != null){
+            Buckets buckets = new Buckets(ch, targets, SearchWorkspace.get(n));
+            IntStream.range(0, sources.length).parallel().forEach(
+                    i -> buckets.scan(ch, sources[i], result[i], SearchWorkspace.get(n)));
+        } else {
+            // columns of each target vertex, as linked lists through nextColumn
+            int[] firstColumn = new int[n];
+            int[] nextColumn = new int[targets.length];
+            Arrays.fill(firstColumn, -1);
+            for(int j = targets.length - 1; j >= 0; j--){
+                nextColumn[j] = firstColumn[targets[j]];
+                firstColumn[targets[j]] = j;
+            }
+            IntStream.range(0, sources.length).parallel().forEach(i -> oneToMany(g, component, sources[i],
+                    targets, firstColumn, nextColumn, result[i], SearchWorkspace.get(n)));
+        }
+        return result;
+    }
+
+    /** Dijkstra from source that stops once every target in its component is settled. */
+    private static void oneToMany(Graph g, int[] component, int source, int[] targets,
+            int[] firstColumn, int[] nextColumn, double[] row, SearchWorkspace w) {
+        Arrays.fill(row, Double.POSITIVE_INFINITY);
+        int remaining = 0;
+        for(int j = 0; j < targets.length; j++){
+            if(firstColumn[targets[j]] == j && component[targets[j]] == component[source]){
+                remaining++;
+            }
+        }
+        w.reset();
+        IndexedHeap queue = w.queue(SearchWorkspace.FORWARD);
+        w.label(SearchWorkspace.FORWARD, source, 0, -1);
+        queue.push(source, 0);
+        while(remaining > 0 && !queue.isEmpty()){
+            int current = queue.pop();
+            double d = w.dist(current);
+            if(firstColumn[current] >= 0){
+                for(int j = firstColumn[current]; j >= 0; j = nextColumn[j]){
+                    row[j] = d;
+                }
+                remaining--;
+            }
+            for(int e = g.offsets[current]; e < g.offsets[current + 1]; e++){
+                int neighbor = g.neighbors[e];
+                double candidate = d + g.weight(e);
+                if(candidate < w.dist(neighbor)){
+                    w.label(SearchWorkspace.FORWARD, neighbor, candidate, current);
+                    queue.push(neighbor, candidate);
+                }
+            }
+        }
+    }
+
+    /** Upward Dijkstra in the hierarchy from source, leaving its search space in w.touched. */
+    private static void upward(ContractionHierarchy ch, int source, SearchWorkspace w) {
+        w.reset();
+        IndexedHeap queue = w.queue(SearchWorkspace.FORWARD);
+        w.label(SearchWorkspace.FORWARD, source, 0, -1);
+        queue.push(source, 0);
+        while(!queue.isEmpty()){
+            int v = queue.pop();
+            double d = w.dist(v);
+            for(int e = ch.upOffsets[v]; e < ch.upOffsets[v + 1]; e++){
+                int u = ch.upNeighbors[e];
+                double candidate = d + ch.upWeights[e];
+                if(candidate < w.dist(u)){
+                    w.label(SearchWorkspace.FORWARD, u, candidate, v);
+                    queue.push(u, candidate);
+                }
+            }
+        }
+    }
+
+    /** The upward search spaces of the targets, as (column, distance) entries grouped by vertex in CSR form. */
+    private static final class Buckets {
+        final int[] offsets;
+        final int[] columns;
+        final double[] dists;
+
+        Buckets(ContractionHierarchy ch, int[] targets, SearchWorkspace w) {
+            int n = ch.vertexCount;
+            int[][] spaces = new int[targets.length][];
+            double[][] spaceDists = new double[targets.length][];
+            offsets = new int[n + 1];
+            for(int j = 0; j < targets.length; j++){
+                upward(ch, targets[j], w);
+                spaces[j] = Arrays.copyOf(w.touched, w.touchedCount);
+                spaceDists[j] = new double[w.touchedCount];
+                for(int k = 0; k < w.touchedCount; k++){
+                    spaceDists[j][k] = w.dist(w.touched[k]);
+                    offsets[w.touched[k] + 1]++;
+                }
+            }
+            for(int v = 0; v < n; v++){
+                offsets[v + 1] += offsets[v];
+            }
+            columns = new int[offsets[n]];
+            dists = new double[offsets[n]];
+            int[] fill = Arrays.copyOf(offsets, n);
+            for(int j = 0; j < targets.length; j++){
+                for(int k = 0; k < spaces[j].length; k++){
+                    int at = fill[spaces[j][k]]++;
+                    columns[at] = j;
+                    dists[at] = spaceDists[j][k];
+                }
+            }
+        }
+
+        void scan(ContractionHierarchy ch, int source, double[] row, SearchWorkspace w) {
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+            upward(ch, source, w);
+            for(int k = 0; k < w.touchedCount; k++){
+                int v = w.touched[k];
+                for(int at = offsets[v]; at < offsets[v + 1]; at++){
+                    row[columns[at]] = Math.min(row[columns[at]], w.dist(v) + dists[at]);
+                }
+            }
+        }
+    }
+}
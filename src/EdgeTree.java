@@ -0,0 +1,183 @@
+/**
+ * Bulk-loaded R-tree over the edges of the graph. Leaves are packed
+ * Sort-Tile-Recursive style: edges are sorted by the longitude of their
+ * midpoints, cut into vertical slices, and each slice is sorted by
+ * latitude (alternating direction so consecutive slices join up). Every
+ * NODE_SIZE consecutive entries of one level form one entry of the next,
+ * so the tree is just a bounding box array per level.
+ *
+ * Distances to edges are measured in a plane tangent at the query's
+ * latitude, where the closest point of a segment is a projection.
+ */
+final class EdgeTree {
+    private static final int NODE_SIZE = 16;
+
+    final Graph graph;
+    private final KdTree vertexTree;
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    // box of entry i at level l: [minLat[l][i], maxLat[l][i]] x [minLon[l][i], maxLon[l][i]]
+    private final double[][] minLat;
+    private final double[][] maxLat;
+    private final double[][] minLon;
+    private final double[][] maxLon;
+
+    EdgeTree(Graph graph, KdTree vertexTree) {
+        this.graph = graph;
+        this.vertexTree = vertexTree;
+        int m = 0;
+        for(int u = 0; u < graph.vertexCount; u++){
+            for(int e = graph.offsets[u]; e < graph.offsets[u + 1]; e++){
+                if(u < graph.neighbors[e]){
+                    m++;
+                }
+            }
+        }
+        int[] from = new int[m];
+        int[] to = new int[m];
+        m = 0;
+        for(int u = 0; u < graph.vertexCount; u++){
+            for(int e = graph.offsets[u]; e < graph.offsets[u + 1]; e++){
+                if(u < graph.neighbors[e]){
+                    from[m] = u;
+                    to[m++] = graph.neighbors[e];
+                }
+            }
+        }
+
+        // Sort-Tile-Recursive order of the edge midpoints
+        double[] midLat = new double[m];
+        double[] midLon = new double[m];
+        int[] order = new int[m];
+        for(int i = 0; i < m; i++){
+            midLat[i] = (graph.lat[from[i]] + graph.lat[to[i]]) / 2;
+            midLon[i] = (graph.lon[from[i]] + graph.lon[to[i]]) / 2;
+            order[i] = i;
+        }
+        IntSort.sort(order, 0, m, (a, b) -> Double.compare(midLon[a], midLon[b]));
+        int leaves = (m + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceSize = NODE_SIZE * (int) Math.ceil(Math.sqrt(leaves));
+        for(int start = 0, slice = 0; start < m; start += sliceSize, slice++){
+            boolean up = slice % 2 == 0;
+            IntSort.sort(order, start, Math.min(m, start + sliceSize),
+                    (a, b) -> up ? Double.compare(midLat[a], midLat[b]) : Double.compare(midLat[b], midLat[a]));
+        }
+        edgeFrom = new int[m];
+        edgeTo = new int[m];
+        for(int i = 0; i < m; i++){
+            edgeFrom[i] = from[order[i]];
+            edgeTo[i] = to[order[i]];
+        }
+
+        int levels = 1;
+        for(int size = m; size > 1; size = (size + NODE_SIZE - 1) / NODE_SIZE){
+            levels++;
+        }
+        minLat = new double[levels][];
+        maxLat = new double[levels][];
+        minLon = new double[levels][];
+        maxLon = new double[levels][];
+        minLat[0] = new double[m];
+        maxLat[0] = new double[m];
+        minLon[0] = new double[m];
+        maxLon[0] = new double[m];
+        for(int i = 0; i < m; i++){
+            minLat[0][i] = Math.min(graph.lat[edgeFrom[i]], graph.lat[edgeTo[i]]);
+            maxLat[0][i] = Math.max(graph.lat[edgeFrom[i]], graph.lat[edgeTo[i]]);
+            minLon[0][i] = Math.min(graph.lon[edgeFrom[i]], graph.lon[edgeTo[i]]);
+            maxLon[0][i] = Math.max(graph.lon[edgeFrom[i]], graph.lon[edgeTo[i]]);
+        }
+        for(int l = 1; l < levels; l++){
+            int below = minLat[l - 1].length;
+            int size = (below + NODE_SIZE - 1) / NODE_SIZE;
+            minLat[l] = new double[size];
+            maxLat[l] = new double[size];
+            minLon[l] = new double[size];
+            maxLon[l] = new double[size];
+            for(int i = 0; i < size; i++){
+                minLat[l][i] = minLon[l][i] = Double.POSITIVE_INFINITY;
+                maxLat[l][i] = maxLon[l][i] = Double.NEGATIVE_INFINITY;
+                for(int c = i * NODE_SIZE; c < Math.min(below, (i + 1) * NODE_SIZE); c++){
+                    minLat[l][i] = Math.min(minLat[l][i], minLat[l - 1][c]);
+                    maxLat[l][i] = Math.max(maxLat[l][i], maxLat[l - 1][c]);
+                    minLon[l][i] = Math.min(minLon[l][i], minLon[l - 1][c]);
+                    maxLon[l][i] = Math.max(maxLon[l][i], maxLon[l - 1][c]);
+                }
+            }
+        }
+    }
+
+    GraphProcessor.EdgeSnap nearest(Point p) {
+        if(edgeFrom.length == 0){
+            return null;
+        }
+        Search s = new Search(p.getLat(), p.getLon());
+        // seed the bound with the edges at the nearest vertex, which are usually close
+        int v = vertexTree.nearest(s.lat, s.lon);
+        for(int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++){
+            consider(s, v, graph.neighbors[e]);
+        }
+        nearest(s, minLat.length - 1, 0);
+        GraphProcessor.EdgeSnap snap = new GraphProcessor.EdgeSnap(graph.point(s.from), graph.point(s.to),
+                s.fraction, p);
+
+        // the tangent plane and Point.distance can disagree by a hair near a vertex;
+        // never report a snap farther away than the nearest vertex with an edge
+        if(graph.offsets[v] < graph.offsets[v + 1] && snap.getDistance() > p.distance(graph.point(v))){
+            snap = new GraphProcessor.EdgeSnap(graph.point(v), graph.point(graph.neighbors[graph.offsets[v]]),
+                    0, p);
+        }
+        return snap;
+    }
+
+    private void nearest(Search s, int level, int node) {
+        if(level == 0){
+            consider(s, edgeFrom[node], edgeTo[node]);
+            return;
+        }
+        int below = minLat[level - 1].length;
+        for(int c = node * NODE_SIZE; c < Math.min(below, (node + 1) * NODE_SIZE); c++){
+            double deltaLat = Math.max(0, Math.max(minLat[level - 1][c] - s.lat, s.lat - maxLat[level - 1][c]));
+            double deltaLon = Math.max(0, Math.max(minLon[level - 1][c] - s.lon, s.lon - maxLon[level - 1][c])) * s.lonScale;
+            if(deltaLat * deltaLat + deltaLon * deltaLon < s.best){
+                nearest(s, level - 1, c);
+            }
+        }
+    }
+
+    /** Projects the query onto segment u-v in the tangent plane and keeps it if it is the closest yet. */
+    private void consider(Search s, int u, int v) {
+        double ax = (graph.lon[u] - s.lon) * s.lonScale;
+        double ay = graph.lat[u] - s.lat;
+        double dx = (graph.lon[v] - graph.lon[u]) * s.lonScale;
+        double dy = graph.lat[v] - graph.lat[u];
+        double length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / length));
+        double x = ax + t * dx;
+        double y = ay + t * dy;
+        double d = x * x + y * y;
+        if(d < s.best){
+            s.best = d;
+            s.from = u;
+            s.to = v;
+            s.fraction = t;
+        }
+    }
+
+    private static final class Search {
+        final double lat;
+        final double lon;
+        final double lonScale;
+        // squared tangent-plane distance in degrees of latitude
+        double best = Double.POSITIVE_INFINITY;
+        int from;
+        int to;
+        double fraction;
+
+        Search(double lat, double lon) {
+            this.lat = lat;
+            this.lon = lon;
+            this.lonScale = Math.cos(Math.toRadians(lat));
+        }
+    }
+}
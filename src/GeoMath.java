@@ -0,0 +1,48 @@
+/**
+ * Distances on the latitude-longitude coordinates of the graph, computed
+ * from primitives so that the arrays of a Graph never need Point objects.
+ */
+final class GeoMath {
+    static final double EARTH_RADIUS = 3963.2;
+
+    private GeoMath() {
+    }
+
+    /**
+     * Straight-line distance in miles between two latitude-longitude
+     * pairs. Evaluates exactly the same expression as Point.distance so
+     * results computed from the primitive arrays agree with it bit for bit.
+     */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double deltaLon = Math.toRadians(lon1 - lon2);
+        double deltaLat = Math.toRadians(lat1 - lat2);
+        double deltaX = EARTH_RADIUS * Math.cos(Math.toRadians((lat1 + lat2)/2)) * deltaLon;
+        double deltaY = EARTH_RADIUS * deltaLat;
+        return Math.sqrt(Math.pow(deltaX, 2) + Math.pow(deltaY, 2));
+    }
+
+    /**
+     * Lower bound on Point.distance from (lat, lon) to any point of the
+     * box [minLat, maxLat] x [minLon, maxLon]. Point.distance scales the
+     * longitude difference by the cosine of the mean latitude, so the
+     * smallest such cosine over the box is used; it is attained at one of the
+     * box's latitude edges unless the mean latitude can reach a pole.
+     */
+    static double boxLowerBound(double lat, double lon,
+            double minLat, double maxLat, double minLon, double maxLon) {
+        double deltaLat = Math.max(0, Math.max(minLat - lat, lat - maxLat));
+        double deltaLon = Math.max(0, Math.max(minLon - lon, lon - maxLon));
+        double cos = 0;
+        if(deltaLon > 0){
+            double low = (lat + minLat) / 2;
+            double high = (lat + maxLat) / 2;
+            if(!(low <= 90 && high >= 90) && !(low <= -90 && high >= -90)){
+                cos = Math.min(Math.abs(Math.cos(Math.toRadians(low))), Math.abs(Math.cos(Math.toRadians(high))));
+            }
+        }
+        double deltaX = EARTH_RADIUS * cos * Math.toRadians(deltaLon);
+        double deltaY = EARTH_RADIUS * Math.toRadians(deltaLat);
+        // shave a few ulps so rounding never prunes a point that ties the best
+        return Math.sqrt(deltaX * deltaX + deltaY * deltaY) * (1 - 1e-9);
+    }
+}
@@ -0,0 +1,474 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Int-indexed compressed-sparse-row (CSR) form of the graph. Vertex v
+ * has coordinates (lat[v], lon[v]) and neighbors
+ * neighbors[offsets[v]] .. neighbors[offsets[v + 1] - 1]. Every
+ * undirected edge is stored once in each direction, and the arc at
+ * index e has length weight(e), computed once at load with the
+ * Point.distance formula. Point objects are only created at the API
+ * boundary; byCoordinate holds the vertex ids sorted by (lat, lon) so
+ * a Point is found again by binary search.
+ */
+final class Graph {
+    static final Graph EMPTY = new Graph(new double[0], new double[0], new int[1], new int[0], new double[0], null,
+            new int[0], null, null);
+
+    final int vertexCount;
+    // smallest |cos(latitude)| over the graph, the tightest scale for longitude that is valid everywhere
+    final double minLonScale;
+    final double[] lat;
+    final double[] lon;
+    final int[] offsets;
+    final int[] neighbors;
+    // exactly one of weights / compactWeights is non-null
+    final double[] weights;
+    final float[] compactWeights;
+    // true when the weights are float-rounded, or sums of float-rounded weights
+    final boolean roundedWeights;
+    final int[] byCoordinate;
+    // optional vertex labels: name of v is nameBytes[nameOffsets[v], nameOffsets[v + 1]), both null if not kept
+    final int[] nameOffsets;
+    final byte[] nameBytes;
+
+    Graph(double[] lat, double[] lon, int[] offsets, int[] neighbors, double[] weights, float[] compactWeights,
+            int[] byCoordinate, int[] nameOffsets, byte[] nameBytes) {
+        this(lat, lon, offsets, neighbors, weights, compactWeights, compactWeights != null, byCoordinate,
+                nameOffsets, nameBytes);
+    }
+
+    Graph(double[] lat, double[] lon, int[] offsets, int[] neighbors, double[] weights, float[] compactWeights,
+            boolean roundedWeights, int[] byCoordinate, int[] nameOffsets, byte[] nameBytes) {
+        this.vertexCount = lat.length;
+        double lowLat = 0;
+        double highLat = 0;
+        for(int v = 0; v < vertexCount; v++){
+            lowLat = v == 0 ? lat[v] : Math.min(lowLat, lat[v]);
+            highLat = v == 0 ? lat[v] : Math.max(highLat, lat[v]);
+        }
+        this.minLonScale = lowLat <= -90 || highLat >= 90 ? 0
+                : Math.min(Math.cos(Math.toRadians(lowLat)), Math.cos(Math.toRadians(highLat)));
+        this.lat = lat;
+        this.lon = lon;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+        this.weights = weights;
+        this.compactWeights = compactWeights;
+        this.roundedWeights = roundedWeights;
+        this.byCoordinate = byCoordinate;
+        this.nameOffsets = nameOffsets;
+        this.nameBytes = nameBytes;
+    }
+
+    /**
+     * Builds the CSR graph from the vertices and edges as listed in a
+     * .graph file. Vertices with identical coordinates collapse into one
+     * (as they would as keys of a map of Points), keeping the id order
+     * of their first appearance. Duplicate edges and self loops are
+     * dropped. fileNameOffsets/fileNameBytes hold the vertex labels in
+     * file order, or are null when names are not kept.
+     */
+    static Graph build(double[] fileLat, double[] fileLon, int[] edgeU, int[] edgeV,
+            int[] fileNameOffsets, byte[] fileNameBytes) {
+        int fileCount = fileLat.length;
+        int[] sorted = new int[fileCount];
+        for(int i = 0; i < fileCount; i++){
+            sorted[i] = i;
+        }
+        IntSort.sort(sorted, 0, fileCount, (a, b) -> {
+            int c = compare(fileLat[a], fileLon[a], fileLat[b], fileLon[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+
+        // first file index carrying each coordinate, then dense ids in file order
+        int[] firstIndex = new int[fileCount];
+        for(int i = 0; i < fileCount; i++){
+            int f = sorted[i];
+            boolean same = i > 0 && compare(fileLat[f], fileLon[f], fileLat[sorted[i - 1]], fileLon[sorted[i - 1]]) == 0;
+            firstIndex[f] = same ? firstIndex[sorted[i - 1]] : f;
+        }
+        int[] idOf = new int[fileCount];
+        int n = 0;
+        for(int f = 0; f < fileCount; f++){
+            idOf[f] = firstIndex[f] == f ? n++ : idOf[firstIndex[f]];
+        }
+
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        int[] byCoordinate = new int[n];
+        int k = 0;
+        for(int i = 0; i < fileCount; i++){
+            int f = sorted[i];
+            if(firstIndex[f] == f){
+                lat[idOf[f]] = fileLat[f];
+                lon[idOf[f]] = fileLon[f];
+                byCoordinate[k++] = idOf[f];
+            }
+        }
+
+        int[] nameOffsets = null;
+        byte[] nameBytes = null;
+        if(fileNameOffsets != null){
+            nameOffsets = new int[n + 1];
+            for(int f = 0; f < fileCount; f++){
+                if(firstIndex[f] == f){
+                    nameOffsets[idOf[f] + 1] = fileNameOffsets[f + 1] - fileNameOffsets[f];
+                }
+            }
+            for(int v = 0; v < n; v++){
+                nameOffsets[v + 1] += nameOffsets[v];
+            }
+            nameBytes = new byte[nameOffsets[n]];
+            for(int f = 0; f < fileCount; f++){
+                if(firstIndex[f] == f){
+                    System.arraycopy(fileNameBytes, fileNameOffsets[f], nameBytes, nameOffsets[idOf[f]],
+                            fileNameOffsets[f + 1] - fileNameOffsets[f]);
+                }
+            }
+        }
+
+        int[] offsets = new int[n + 1];
+        for(int i = 0; i < edgeU.length; i++){
+            offsets[idOf[edgeU[i]] + 1]++;
+            offsets[idOf[edgeV[i]] + 1]++;
+        }
+        for(int v = 0; v < n; v++){
+            offsets[v + 1] += offsets[v];
+        }
+        int[] fill = Arrays.copyOf(offsets, n);
+        int[] neighbors = new int[offsets[n]];
+        for(int i = 0; i < edgeU.length; i++){
+            int u = idOf[edgeU[i]];
+            int v = idOf[edgeV[i]];
+            neighbors[fill[u]++] = v;
+            neighbors[fill[v]++] = u;
+        }
+
+        // sort each adjacency run, then squeeze out duplicates and self loops
+        int write = 0;
+        for(int v = 0; v < n; v++){
+            int from = offsets[v];
+            int to = offsets[v + 1];
+            Arrays.sort(neighbors, from, to);
+            offsets[v] = write;
+            for(int e = from; e < to; e++){
+                int w = neighbors[e];
+                if(w != v && (write == offsets[v] || neighbors[write - 1] != w)){
+                    neighbors[write++] = w;
+                }
+            }
+        }
+        offsets[n] = write;
+        neighbors = Arrays.copyOf(neighbors, write);
+
+        double[] weights = new double[write];
+        for(int v = 0; v < n; v++){
+            for(int e = offsets[v]; e < offsets[v + 1]; e++){
+                weights[e] = GeoMath.distance(lat[v], lon[v], lat[neighbors[e]], lon[neighbors[e]]);
+            }
+        }
+        return new Graph(lat, lon, offsets, neighbors, weights, null, byCoordinate, nameOffsets, nameBytes);
+    }
+
+    /** Orders coordinates like Point.compareTo, treating 0.0 and -0.0 as equal like Point.equals. */
+    static int compare(double lat1, double lon1, double lat2, double lon2) {
+        if(lat1 != lat2){
+            return lat1 < lat2 ? -1 : 1;
+        }
+        if(lon1 != lon2){
+            return lon1 < lon2 ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /** @return the vertex id at p's exact coordinates, or -1 if p is not in the graph */
+    int indexOf(Point p) {
+        double pLat = p.getLat();
+        double pLon = p.getLon();
+        int lo = 0;
+        int hi = vertexCount - 1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1;
+            int v = byCoordinate[mid];
+            int c = compare(lat[v], lon[v], pLat, pLon);
+            if(c == 0){
+                return v;
+            }
+            if(c < 0){
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    Point point(int v) {
+        return new Point(lat[v], lon[v]);
+    }
+
+    List<Point> points(int[] ids) {
+        List<Point> result = new ArrayList<>(ids.length);
+        for(int v : ids){
+            result.add(point(v));
+        }
+        return result;
+    }
+
+    /** CRC32 of the coordinates and adjacency, identifying the graph that derived data was built for. */
+    long checksum() {
+        ByteBuffer bytes = ByteBuffer.allocate(16 * vertexCount + 4 * (vertexCount + 1) + 4 * neighbors.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asDoubleBuffer().put(lat).put(lon);
+        bytes.position(16 * vertexCount);
+        bytes.asIntBuffer().put(offsets).put(neighbors);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.position(0));
+        return crc.getValue();
+    }
+
+    /**
+     * Labels connected components with one breadth-first sweep.
+     * @return label[v], equal exactly when two vertices are connected
+     */
+    int[] componentLabels() {
+        int[] label = new int[vertexCount];
+        Arrays.fill(label, -1);
+        int[] queue = new int[vertexCount];
+        int next = 0;
+        for(int root = 0; root < vertexCount; root++){
+            if(label[root] >= 0){
+                continue;
+            }
+            int head = 0;
+            int tail = 0;
+            label[root] = next;
+            queue[tail++] = root;
+            while(head < tail){
+                int current = queue[head++];
+                for(int e = offsets[current]; e < offsets[current + 1]; e++){
+                    if(label[neighbors[e]] < 0){
+                        label[neighbors[e]] = next;
+                        queue[tail++] = neighbors[e];
+                    }
+                }
+            }
+            next++;
+        }
+        return label;
+    }
+
+    String name(int v) {
+        if(nameBytes == null){
+            return null;
+        }
+        return new String(nameBytes, nameOffsets[v], nameOffsets[v + 1] - nameOffsets[v], StandardCharsets.UTF_8);
+    }
+
+    /** @return a copy of this graph sharing everything except the weights, which are rounded to float */
+    Graph withCompactWeights() {
+        if(compactWeights != null){
+            return this;
+        }
+        float[] rounded = new float[weights.length];
+        for(int e = 0; e < weights.length; e++){
+            rounded[e] = (float) weights[e];
+        }
+        return new Graph(lat, lon, offsets, neighbors, null, rounded, byCoordinate, nameOffsets, nameBytes);
+    }
+
+    double weight(int arc) {
+        return weights != null ? weights[arc] : compactWeights[arc];
+    }
+
+    /**
+     * @return a copy of this graph in which vertex order[i] becomes
+     * vertex i, with each adjacency run still sorted by neighbor id
+     */
+    Graph renumbered(int[] order) {
+        int n = vertexCount;
+        int[] newId = new int[n];
+        for(int i = 0; i < n; i++){
+            newId[order[i]] = i;
+        }
+        double[] newLat = new double[n];
+        double[] newLon = new double[n];
+        int[] newOffsets = new int[n + 1];
+        for(int i = 0; i < n; i++){
+            int v = order[i];
+            newLat[i] = lat[v];
+            newLon[i] = lon[v];
+            newOffsets[i + 1] = newOffsets[i] + offsets[v + 1] - offsets[v];
+        }
+        int[] newNeighbors = new int[neighbors.length];
+        double[] newWeights = weights == null ? null : new double[neighbors.length];
+        float[] newCompactWeights = compactWeights == null ? null : new float[neighbors.length];
+        for(int i = 0; i < n; i++){
+            int v = order[i];
+            int base = newOffsets[i];
+            // insertion sort by new neighbor id; runs are short
+            for(int e = offsets[v]; e < offsets[v + 1]; e++){
+                int u = newId[neighbors[e]];
+                int j = base + e - offsets[v];
+                for(; j > base && newNeighbors[j - 1] > u; j--){
+                    newNeighbors[j] = newNeighbors[j - 1];
+                    if(newWeights != null){
+                        newWeights[j] = newWeights[j - 1];
+                    } else {
+                        newCompactWeights[j] = newCompactWeights[j - 1];
+                    }
+                }
+                newNeighbors[j] = u;
+                if(newWeights != null){
+                    newWeights[j] = weights[e];
+                } else {
+                    newCompactWeights[j] = compactWeights[e];
+                }
+            }
+        }
+        int[] newByCoordinate = new int[n];
+        for(int k = 0; k < n; k++){
+            newByCoordinate[k] = newId[byCoordinate[k]];
+        }
+        int[] newNameOffsets = null;
+        byte[] newNameBytes = null;
+        if(nameBytes != null){
+            newNameOffsets = new int[n + 1];
+            newNameBytes = new byte[nameBytes.length];
+            for(int i = 0; i < n; i++){
+                int v = order[i];
+                int length = nameOffsets[v + 1] - nameOffsets[v];
+                System.arraycopy(nameBytes, nameOffsets[v], newNameBytes, newNameOffsets[i], length);
+                newNameOffsets[i + 1] = newNameOffsets[i] + length;
+            }
+        }
+        return new Graph(newLat, newLon, newOffsets, newNeighbors, newWeights, newCompactWeights,
+                newByCoordinate, newNameOffsets, newNameBytes);
+    }
+
+    /**
+     * @return order with the vertices of degree other than 2 moved to
+     * the front, each group keeping its relative order
+     */
+    int[] junctionsFirst(int[] order) {
+        int[] result = new int[order.length];
+        int k = 0;
+        for(int v : order){
+            if(offsets[v + 1] - offsets[v] != 2){
+                result[k++] = v;
+            }
+        }
+        for(int v : order){
+            if(offsets[v + 1] - offsets[v] == 2){
+                result[k++] = v;
+            }
+        }
+        return result;
+    }
+
+    /** Vertex ids sorted by their position on a Hilbert curve through a 2^15 by 2^15 grid over the graph. */
+    int[] hilbertOrder() {
+        int n = vertexCount;
+        double lowLat = Double.POSITIVE_INFINITY;
+        double highLat = Double.NEGATIVE_INFINITY;
+        double lowLon = Double.POSITIVE_INFINITY;
+        double highLon = Double.NEGATIVE_INFINITY;
+        for(int v = 0; v < n; v++){
+            lowLat = Math.min(lowLat, lat[v]);
+            highLat = Math.max(highLat, lat[v]);
+            lowLon = Math.min(lowLon, lon[v]);
+            highLon = Math.max(highLon, lon[v]);
+        }
+        final int side = 1 << 15;
+        double latScale = highLat > lowLat ? (side - 1) / (highLat - lowLat) : 0;
+        double lonScale = highLon > lowLon ? (side - 1) / (highLon - lowLon) : 0;
+        // curve position in the high bits, id in the low ones, so one primitive sort does it
+        long[] keys = new long[n];
+        for(int v = 0; v < n; v++){
+            int x = (int) ((lon[v] - lowLon) * lonScale);
+            int y = (int) ((lat[v] - lowLat) * latScale);
+            long d = 0;
+            for(int s = side >>> 1; s > 0; s >>>= 1){
+                int rx = (x & s) != 0 ? 1 : 0;
+                int ry = (y & s) != 0 ? 1 : 0;
+                d += (long) s * s * ((3 * rx) ^ ry);
+                if(ry == 0){
+                    if(rx == 1){
+                        x = side - 1 - x;
+                        y = side - 1 - y;
+                    }
+                    int t = x;
+                    x = y;
+                    y = t;
+                }
+            }
+            keys[v] = d << 32 | v;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for(int i = 0; i < n; i++){
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /**
+     * Vertex ids in Cuthill-McKee order: each component breadth first
+     * from its vertex of least degree, the newly reached neighbors of
+     * every vertex taken in increasing degree.
+     */
+    int[] cuthillMcKeeOrder() {
+        int n = vertexCount;
+        // ids by degree, counting sort
+        int maxDegree = 0;
+        for(int v = 0; v < n; v++){
+            maxDegree = Math.max(maxDegree, offsets[v + 1] - offsets[v]);
+        }
+        int[] start = new int[maxDegree + 2];
+        for(int v = 0; v < n; v++){
+            start[offsets[v + 1] - offsets[v] + 1]++;
+        }
+        for(int d = 0; d <= maxDegree; d++){
+            start[d + 1] += start[d];
+        }
+        int[] byDegree = new int[n];
+        for(int v = 0; v < n; v++){
+            byDegree[start[offsets[v + 1] - offsets[v]]++] = v;
+        }
+
+        int[] order = new int[n];
+        boolean[] visited = new boolean[n];
+        int tail = 0;
+        for(int root : byDegree){
+            if(visited[root]){
+                continue;
+            }
+            int head = tail;
+            visited[root] = true;
+            order[tail++] = root;
+            while(head < tail){
+                int current = order[head++];
+                int from = tail;
+                for(int e = offsets[current]; e < offsets[current + 1]; e++){
+                    int u = neighbors[e];
+                    if(!visited[u]){
+                        visited[u] = true;
+                        int degree = offsets[u + 1] - offsets[u];
+                        int j = tail++;
+                        for(; j > from && offsets[order[j - 1] + 1] - offsets[order[j - 1]] > degree; j--){
+                            order[j] = order[j - 1];
+                        }
+                        order[j] = u;
+                    }
+                }
+            }
+        }
+        return order;
+    }
+}
@@ -5,7 +5,6 @@
  * Visualize 
  */
 import java.io.File;
-import java.io.FileInputStream;
 import java.util.List;
 import java.util.Scanner;
 
@@ -25,7 +24,7 @@ public class GraphDemo {
         Point end = getcoordinate(endlocation, "data/uscities.csv");
 
         GraphProcessor g = new GraphProcessor();
-        g.initialize(new FileInputStream("data/usa.graph"));
+        g.initialize("data/usa.graph");
 
         long startTime = System.nanoTime();
 
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses the .graph text format straight from a memory-mapped view of
+ * the file. Integers and decimals are decoded from the bytes in place,
+ * so no String is created per line. The optional edge name column is
+ * skipped over; vertex names are copied into one byte array only when
+ * keepNames is set.
+ */
+final class GraphFileParser {
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final ByteBuffer buffer;
+    private final int limit;
+    private final boolean keepNames;
+    private int pos;
+    private int tokenStart;
+
+    private GraphFileParser(ByteBuffer buffer, boolean keepNames) {
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+        this.keepNames = keepNames;
+    }
+
+    static Graph parse(FileChannel channel, boolean keepNames) throws IOException {
+        long size = channel.size() - channel.position();
+        if(size > Integer.MAX_VALUE){
+            throw new IOException("Graph file too large to map: " + size + " bytes");
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, channel.position(), size);
+        return new GraphFileParser(buffer, keepNames).parse();
+    }
+
+    private Graph parse() throws IOException {
+        int verticesCount = nextInt();
+        int edgesCount = nextInt();
+        skipLine();
+
+        double[] lat = new double[verticesCount];
+        double[] lon = new double[verticesCount];
+        int[] nameStart = keepNames ? new int[verticesCount] : null;
+        int[] nameOffsets = keepNames ? new int[verticesCount + 1] : null;
+        for(int i = 0; i < verticesCount; i++){
+            skipToken();
+            if(keepNames){
+                nameStart[i] = tokenStart;
+                nameOffsets[i + 1] = nameOffsets[i] + pos - tokenStart;
+            }
+            lat[i] = nextDouble();
+            lon[i] = nextDouble();
+            skipLine();
+        }
+
+        int[] edgeU = new int[edgesCount];
+        int[] edgeV = new int[edgesCount];
+        for(int i = 0; i < edgesCount; i++){
+            edgeU[i] = nextIndex(verticesCount);
+            edgeV[i] = nextIndex(verticesCount);
+            skipLine();
+        }
+
+        byte[] nameBytes = null;
+        if(keepNames){
+            nameBytes = new byte[nameOffsets[verticesCount]];
+            for(int i = 0; i < verticesCount; i++){
+                buffer.get(nameStart[i], nameBytes, nameOffsets[i], nameOffsets[i + 1] - nameOffsets[i]);
+            }
+        }
+        return Graph.build(lat, lon, edgeU, edgeV, nameOffsets, nameBytes);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private void skipSpaces() throws IOException {
+        while(pos < limit && isSpace(buffer.get(pos))){
+            pos++;
+        }
+        if(pos >= limit){
+            throw error("unexpected end of file");
+        }
+    }
+
+    private void skipToken() throws IOException {
+        skipSpaces();
+        tokenStart = pos;
+        while(pos < limit && !isSpace(buffer.get(pos))){
+            pos++;
+        }
+    }
+
+    /** Moves past the rest of the current line, including any optional name column. */
+    private void skipLine() {
+        while(pos < limit && buffer.get(pos) != '\n'){
+            pos++;
+        }
+        pos++;
+    }
+
+    private int nextIndex(int bound) throws IOException {
+        int start = pos;
+        int value = nextInt();
+        if(value < 0 || value >= bound){
+            pos = start;
+            throw error("vertex index " + value + " out of range");
+        }
+        return value;
+    }
+
+    private int nextInt() throws IOException {
+        skipSpaces();
+        boolean negative = buffer.get(pos) == '-';
+        if(negative){
+            pos++;
+        }
+        int start = pos;
+        long value = 0;
+        while(pos < limit){
+            int digit = buffer.get(pos) - '0';
+            if(digit < 0 || digit > 9){
+                break;
+            }
+            value = value * 10 + digit;
+            if(value > Integer.MAX_VALUE){
+                throw error("integer overflow");
+            }
+            pos++;
+        }
+        if(pos == start){
+            throw error("expected an integer");
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Decodes a decimal. Values with at most 15 significant digits and
+     * no exponent (every coordinate in the supplied data) are exact
+     * integers scaled by an exact power of ten, so one division rounds
+     * to the same double Double.parseDouble returns. Anything else is
+     * handed to Double.parseDouble.
+     */
+    private double nextDouble() throws IOException {
+        skipSpaces();
+        int start = pos;
+        boolean negative = false;
+        byte b = buffer.get(pos);
+        if(b == '-' || b == '+'){
+            negative = b == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        boolean simple = true;
+        while(pos < limit){
+            b = buffer.get(pos);
+            if(b >= '0' && b <= '9'){
+                seenDigit = true;
+                if(mantissa != 0 || b != '0'){
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if(seenPoint){
+                    fractionDigits++;
+                }
+                if(digits > 15){
+                    simple = false;
+                }
+            } else if(b == '.' && !seenPoint){
+                seenPoint = true;
+            } else if(isSpace(b)){
+                break;
+            } else {
+                simple = false;
+            }
+            pos++;
+        }
+        // without a digit, Double.parseDouble rejects the token
+        if(simple && seenDigit && fractionDigits < POWERS_OF_TEN.length){
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        byte[] text = new byte[pos - start];
+        buffer.get(start, text);
+        try {
+            return Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+        } catch(NumberFormatException e) {
+            pos = start;
+            throw error("expected a number");
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException("Malformed .graph file at byte " + pos + ": " + message);
+    }
+}
@@ -1,79 +1,439 @@
 import java.security.InvalidAlgorithmParameterException;
-import java.security.Key;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
-import java.util.Set;
-import java.util.Stack;
-import java.util.concurrent.ThreadPoolExecutor.DiscardOldestPolicy;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.File;
 import java.io.FileInputStream;
-
-//import org.junit.jupiter.params.shadow.com.univocity.parsers.conversions.IntegerConversion;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 
 /**
  * Models a weighted graph of latitude-longitude points
  * and supports various distance and routing operations.
+ * Queries are safe to run from any number of threads at once: everything
+ * they read is one immutable Network, replaced as a whole when the graph
+ * is initialized or extended, and their working state is per thread.
  * To do: Add your name(s) as additional authors
  * @author Ashley Cho Clementine Mohun
  *
  */
 public class GraphProcessor {
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final String LANDMARKS_SUFFIX = ".landmarks";
+
+    private static final String HUB_LABELS_SUFFIX = ".hubs";
+
+    /**
+     * Shortest path algorithms route can use. All of them return shortest
+     * routes; they differ in how much of the graph they explore.
+     */
+    public enum Algorithm {
+        /** Dijkstra's algorithm, stopping once the destination is settled. */
+        DIJKSTRA,
+        /** A* search directed by a straight-line lower bound on the distance left. */
+        ASTAR,
+        /** Dijkstra's algorithm run from both ends at once until the searches meet. */
+        BIDIRECTIONAL,
+        /** Bidirectional search with both directions steered by the A* bound. */
+        BIDIRECTIONAL_ASTAR,
+        /**
+         * A* with landmark lower bounds (see buildLandmarks), falling back
+         * to the straight-line bound where they are weaker or not built.
+         */
+        ALT,
+        /**
+         * Contraction hierarchy query (see buildContractionHierarchy). Runs
+         * as BIDIRECTIONAL until a hierarchy is built.
+         */
+        CH
+    }
+
+    /**
+     * How initialize numbers the vertices of the graph it loads. Searches
+     * read the arrays of a vertex's neighbors right after its own, so an
+     * order that gives nearby vertices nearby ids keeps them in cache.
+     * Both renumberings also put every vertex of degree other than 2
+     * ahead of the degree-2 ones, so the chain-contracted routing graph
+     * that most searches run on occupies a dense prefix of the ids.
+     * Points and routes are the same under every order.
+     */
+    public enum VertexOrder {
+        /** Order of first appearance in the graph file. */
+        FILE,
+        /** Along a Hilbert curve over latitude and longitude, so close vertices get close ids. */
+        HILBERT,
+        /**
+         * Cuthill-McKee: breadth first from a vertex of least degree in
+         * each component, visiting neighbors in increasing degree, so the
+         * neighbors of a vertex get nearly consecutive ids.
+         */
+        CUTHILL_MCKEE
+    }
+
+    // read once per query; writers are synchronized and publish a new Network
+    private volatile Network network = Network.EMPTY;
+    private volatile boolean keepNames;
+    private volatile boolean compactWeights;
+    private volatile VertexOrder vertexOrder = VertexOrder.FILE;
+    private volatile Algorithm algorithm = Algorithm.DIJKSTRA;
+    private volatile Executor executor = DEFAULT_EXECUTOR;
+    private volatile int parallelism = Runtime.getRuntime().availableProcessors();
+    private volatile int routeCacheCapacity;
+
+    /**
+     * One virtual thread per task where the runtime has them (Java 21+),
+     * otherwise the common fork-join pool. Looked up reflectively so the
+     * class still compiles and runs on Java 17.
+     */
+    private static final Executor DEFAULT_EXECUTOR = defaultExecutor();
+
+    private static Executor defaultExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch(ReflectiveOperationException unavailable) {
+            return ForkJoinPool.commonPool();
+        }
+    }
+
+    /** Pairs handed to one task of the streaming routeAll. */
+    private static final int BATCH_CHUNK = 256;
+
     /**
      * Creates and initializes a graph from a source data
      * file in the .graph format. Should be called
-     * before any other methods work.
+     * before any other methods work. A binary snapshot
+     * written by writeSnapshot is also accepted.
      * @param file a FileInputStream of the .graph file
-     * @throws Exception if file not found or error reading
+     * @throws Exception if file not found or error reading, or if names
+     * are kept and the snapshot was written without them
+     */
+    public synchronized void initialize(FileInputStream file) throws Exception {
+        FileChannel channel = file.getChannel();
+        if(GraphSnapshot.isSnapshot(channel)){
+            Graph loaded = GraphSnapshot.read(channel, -1, -1);
+            if(keepNames && loaded.nameBytes == null){
+                throw new IOException("Snapshot was written without vertex names");
+            }
+            network = prepare(loaded);
+        } else {
+            network = prepare(GraphFileParser.parse(channel, keepNames));
+        }
+    }
+
+    /**
+     * Initializes from the .graph file at graphPath, opening the binary
+     * snapshot graphPath + ".snapshot" instead when it exists and was
+     * written from the current version of the .graph file. Otherwise the
+     * text is parsed and the snapshot is (re)written for next time.
+     * Landmarks saved by writeLandmarks as graphPath + ".landmarks" and hub
+     * labels saved by writeHubLabels as graphPath + ".hubs" are loaded too
+     * if they were built for this graph.
+     * @param graphPath path of the .graph file
+     * @throws Exception if the .graph file is missing or malformed
      */
+    public synchronized void initialize(String graphPath) throws Exception {
+        File source = new File(graphPath);
+        File snapshot = new File(graphPath + SNAPSHOT_SUFFIX);
+        long sourceLength = source.length();
+        long sourceModified = source.lastModified();
 
-    private HashMap<Point, HashSet<Point>> adjList;
+        if(snapshot.isFile()){
+            try(FileInputStream in = new FileInputStream(snapshot)){
+                Graph loaded = GraphSnapshot.read(in.getChannel(), sourceLength, sourceModified);
+                if(loaded != null && (!keepNames || loaded.nameBytes != null)){
+                    network = withPrecomputed(prepare(loaded), graphPath);
+                    return;
+                }
+            } catch(IOException corrupt) {
+                // fall through and rebuild it from the text
+            }
+        }
 
-    public void initialize(FileInputStream file) throws Exception {
-        Scanner reader = new Scanner(file);
-        adjList = new HashMap<>(); 
-        
-        String[] first = reader.nextLine().split(" ");
-        int VerticesCount = Integer.parseInt(first[0]);
-        int EdgesCount = Integer.parseInt(first[1]);
+        Graph parsed;
+        try(FileInputStream in = new FileInputStream(source)){
+            parsed = GraphFileParser.parse(in.getChannel(), keepNames);
+        }
+        try {
+            GraphSnapshot.write(parsed, snapshot.toPath(), sourceLength, sourceModified);
+        } catch(IOException readOnly) {
+            // the snapshot is only a cache; routing works without it
+        }
+        network = withPrecomputed(prepare(parsed), graphPath);
+    }
+
+    /** Adds the landmarks and hub labels next to graphPath that were built for net's graph. */
+    private static Network withPrecomputed(Network net, String graphPath) {
+        File file = new File(graphPath + LANDMARKS_SUFFIX);
+        if(file.isFile()){
+            try(FileInputStream in = new FileInputStream(file)){
+                net = net.withLandmarks(Landmarks.read(in.getChannel(), net.graph));
+            } catch(IOException corrupt) {
+                // landmarks only speed up ALT; it routes without them
+            }
+        }
+        file = new File(graphPath + HUB_LABELS_SUFFIX);
+        if(file.isFile()){
+            try(FileInputStream in = new FileInputStream(file)){
+                net = net.withHubLabels(HubLabels.read(in.getChannel(), net.graph));
+            } catch(IOException corrupt) {
+                // networkDistance falls back to searching
+            }
+        }
+        return net;
+    }
 
-        Point[] arr = new Point[VerticesCount];
+    private Network prepare(Graph loaded) {
+        Graph g = loaded;
+        int[] order = null;
+        if(vertexOrder == VertexOrder.HILBERT){
+            order = g.junctionsFirst(g.hilbertOrder());
+        } else if(vertexOrder == VertexOrder.CUTHILL_MCKEE){
+            order = g.junctionsFirst(g.cuthillMcKeeOrder());
+        }
+        int[] fileOrder = null;
+        if(order != null){
+            g = g.renumbered(order);
+            fileOrder = new int[order.length];
+            for(int i = 0; i < order.length; i++){
+                fileOrder[order[i]] = i;
+            }
+        }
+        Network net = new Network(compactWeights ? g.withCompactWeights() : g, fileOrder);
+        int capacity = routeCacheCapacity;
+        return capacity > 0 ? net.withRouteCache(new RouteCache(capacity)) : net;
+    }
+
+    /**
+     * Writes the current graph as a binary snapshot that initialize can
+     * later open without parsing. The snapshot is in file order whatever
+     * numbering setVertexOrder chose.
+     * @param snapshotPath where to write the snapshot
+     * @throws IOException if the file cannot be written
+     */
+    public void writeSnapshot(String snapshotPath) throws IOException {
+        Network net = network;
+        Graph g = net.fileOrder == null ? net.graph : net.graph.renumbered(net.fileOrder);
+        GraphSnapshot.write(g, Path.of(snapshotPath), -1, -1);
+    }
+
+    /**
+     * Chooses whether subsequent calls to initialize store edge weights as
+     * float instead of double, halving the weight array. Routes are then
+     * shortest with respect to the rounded weights; routeDistance still
+     * computes exact distances.
+     * @param compactWeights true to store float weights
+     */
+    public void setCompactWeights(boolean compactWeights) {
+        this.compactWeights = compactWeights;
+    }
 
-        for(int i = 0; i < VerticesCount; i ++){ 
-            String[] line = reader.nextLine().split(" ");
-            String name = line[0];
-            Double latitude = Double.parseDouble(line[1]);
-            Double longitude = Double.parseDouble(line[2]);
-            Point p = new Point(latitude, longitude); 
-            adjList.put(p, new HashSet<Point>()); 
-            arr[i] = p; 
+    /**
+     * Chooses how subsequent calls to initialize number the vertices.
+     * Snapshots stay in file order and are renumbered as they load;
+     * landmarks and hub labels are tied to the numbering they were built
+     * with. Vertex ids in ShortestPathTree and FacilityIndex follow it.
+     * @param vertexOrder the numbering to use, VertexOrder.FILE by default
+     */
+    public void setVertexOrder(VertexOrder vertexOrder) {
+        this.vertexOrder = vertexOrder;
+    }
+
+    /**
+     * Chooses the algorithm route uses when none is given.
+     * @param algorithm the default routing algorithm
+     */
+    public void setAlgorithm(Algorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Chooses where routeAll runs its routes, and how many tasks it keeps
+     * busy at once. Each task routes many pairs in turn so that it reuses
+     * one thread's search workspace. By default routes run on virtual
+     * threads when the runtime has them and on the common fork-join pool
+     * otherwise, with one task per available processor.
+     * @param executor where to run routing tasks, or null for the default
+     * @param parallelism how many tasks to run at once, at least 1
+     */
+    public void setExecutor(Executor executor, int parallelism) {
+        if(parallelism < 1){
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.executor = executor == null ? DEFAULT_EXECUTOR : executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Keeps up to capacity recently used routes between graph vertices, so
+     * that routing the same pair again, in either direction, only copies
+     * the cached path. Routes are cached by vertex pair whatever algorithm
+     * found them, and the cache is emptied whenever the graph is loaded
+     * again. Routes between points on edges are not cached.
+     * @param capacity how many routes to keep; 0 turns the cache off
+     */
+    public synchronized void setRouteCache(int capacity) {
+        if(capacity < 0){
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        routeCacheCapacity = capacity;
+        network = network.withRouteCache(capacity > 0 ? new RouteCache(capacity) : null);
+    }
+
+    /**
+     * Counts how the route cache has done since the graph was last loaded
+     * or the cache last resized; all zero when there is no cache.
+     * @return hits, misses, evictions and current size
+     */
+    public RouteCacheStats routeCacheStats() {
+        RouteCache cache = network.routeCache;
+        return cache == null ? new RouteCacheStats(0, 0, 0, 0) : cache.stats();
+    }
+
+    /**
+     * Prepares Algorithm.ALT: picks count landmarks spread far apart over
+     * the largest connected component and computes the network distance
+     * from each to every vertex, one Dijkstra per landmark, run in
+     * parallel. 8 to 32 landmarks is typical; the tables take 4 * count
+     * bytes per vertex and are dropped when initialize loads another graph.
+     * @param count number of landmarks, at least 1
+     * @throws IllegalArgumentException if count is less than 1
+     */
+    public synchronized void buildLandmarks(int count) {
+        if(count < 1){
+            throw new IllegalArgumentException("count must be positive");
+        }
+        Network net = network;
+        network = net.withLandmarks(Landmarks.build(net, count));
+    }
+
+    /**
+     * Prepares Algorithm.CH by contracting the graph into a contraction
+     * hierarchy. This takes a few seconds on a national road network, after
+     * which a route costs two small searches instead of one over a large
+     * part of the graph. The hierarchy is dropped when initialize loads
+     * another graph.
+     */
+    public synchronized void buildContractionHierarchy() {
+        Network net = network;
+        network = net.withHierarchy(ContractionHierarchy.build(net.graph));
+    }
+
+    /**
+     * Prepares networkDistance to answer from hub labels, building a
+     * contraction hierarchy first if there is none. The labels are kept off
+     * the Java heap and dropped when initialize loads another graph.
+     */
+    public synchronized void buildHubLabels() {
+        Network net = network;
+        if(net.hierarchy == null){
+            net = net.withHierarchy(ContractionHierarchy.build(net.graph));
+        }
+        network = net.withHubLabels(HubLabels.build(net.graph, net.hierarchy));
+    }
+
+    /**
+     * Writes the hub labels built by buildHubLabels. Saved as the .graph
+     * path plus ".hubs", initialize(String) maps them back in.
+     * @param hubLabelsPath where to write the labels
+     * @throws IOException if the file cannot be written
+     * @throws IllegalStateException if no hub labels have been built
+     */
+    public void writeHubLabels(String hubLabelsPath) throws IOException {
+        HubLabels labels = network.hubLabels;
+        if(labels == null){
+            throw new IllegalStateException("No hub labels to write");
+        }
+        labels.write(Path.of(hubLabelsPath));
+    }
+
+    /**
+     * Maps hub labels written by writeHubLabels for the current graph.
+     * @param hubLabelsPath file to map
+     * @throws IOException if the file is corrupt or was built for another graph
+     */
+    public synchronized void loadHubLabels(String hubLabelsPath) throws IOException {
+        Network net = network;
+        try(FileInputStream in = new FileInputStream(hubLabelsPath)){
+            HubLabels loaded = HubLabels.read(in.getChannel(), net.graph);
+            if(loaded == null){
+                throw new IOException("Hub labels were built for a different graph");
+            }
+            network = net.withHubLabels(loaded);
+        }
+    }
+
+    /**
+     * Writes the landmark tables built by buildLandmarks. Saved as the
+     * .graph path plus ".landmarks", initialize(String) picks them up.
+     * @param landmarksPath where to write the tables
+     * @throws IOException if the file cannot be written
+     * @throws IllegalStateException if no landmarks have been built
+     */
+    public void writeLandmarks(String landmarksPath) throws IOException {
+        Network net = network;
+        if(net.landmarks == null){
+            throw new IllegalStateException("No landmarks to write");
         }
+        net.landmarks.write(net.graph, Path.of(landmarksPath));
+    }
 
-        for(int i = 0; i < EdgesCount; i++){ 
-            String name = "";
-            String[] line = reader.nextLine().split(" ");
-            int V1 = Integer.parseInt(line[0]);
-            int V2 = Integer.parseInt(line[1]);
-            if(line.length > 2){ 
-                name = line[2];
+    /**
+     * Loads landmark tables written by writeLandmarks for the current graph.
+     * @param landmarksPath file to read
+     * @throws IOException if the file is corrupt or was built for another graph
+     */
+    public synchronized void loadLandmarks(String landmarksPath) throws IOException {
+        Network net = network;
+        try(FileInputStream in = new FileInputStream(landmarksPath)){
+            Landmarks loaded = Landmarks.read(in.getChannel(), net.graph);
+            if(loaded == null){
+                throw new IOException("Landmarks were built for a different graph");
             }
-            Point p1 = arr[V1]; 
-            Point p2 = arr[V2];
-            adjList.get(p1).add(p2); 
-            adjList.get(p2).add(p1);
+            network = net.withLandmarks(loaded);
         }
+    }
 
+    /** @return how many landmarks ALT routes with, 0 when none are loaded */
+    int landmarkCount() {
+        Landmarks landmarks = network.landmarks;
+        return landmarks == null ? 0 : landmarks.count;
+    }
+
+    /**
+     * Chooses whether subsequent calls to initialize keep the vertex names
+     * from the .graph file (off by default to save memory).
+     * @param keepNames true to keep names available through vertexName
+     */
+    public void setKeepNames(boolean keepNames) {
+        this.keepNames = keepNames;
+    }
+
+    /**
+     * @param p a point in the graph
+     * @return the name given to p in the .graph file, or null if p is not in
+     * the graph or names were not kept
+     */
+    public String vertexName(Point p) {
+        Graph g = network.graph;
+        int v = g.indexOf(p);
+        return v < 0 ? null : g.name(v);
     }
 
 
-    
     /**
      * Searches for the point in the graph that is closest in
      * straight-line distance to the parameter point p
@@ -81,27 +441,56 @@ public class GraphProcessor {
      * @return The closest point in the graph to p
      */
     public Point nearestPoint(Point p) {
-        Point winning = p; 
+        KdTree tree = network.vertexTree;
+        int winning = tree.nearest(p.getLat(), p.getLon());
+        return winning < 0 ? p : tree.graph.point(winning);
+    }
 
-        double shortest = Math.tan(Math.PI/2); 
 
-        for(Point key: adjList.keySet()){
-            if(p.distance(key) < shortest){
-                shortest = p.distance(key);
-                winning = key;
-            }
-        }
-        return winning;
+    /**
+     * Finds the k points in the graph closest in straight-line distance
+     * to p, nearest first.
+     * @param p A point, not necessarily in the graph
+     * @param k How many points to return
+     * @return The min(k, number of vertices) closest points to p
+     */
+    public List<Point> kNearest(Point p, int k) {
+        VertexGrid grid = network.vertexGrid;
+        return grid.graph.points(grid.kNearest(p.getLat(), p.getLon(), k));
+    }
+
+
+    /**
+     * Finds every point in the graph within the given straight-line
+     * distance of p, nearest first.
+     * @param p A point, not necessarily in the graph
+     * @param miles The search radius
+     * @return The points q of the graph with p.distance(q) <= miles
+     */
+    public List<Point> withinRadius(Point p, double miles) {
+        VertexGrid grid = network.vertexGrid;
+        return grid.graph.points(grid.withinRadius(p.getLat(), p.getLon(), miles));
+    }
+
+
+    /**
+     * Searches for the road segment (edge) of the graph passing closest to
+     * p, which may be much closer than any vertex on long straight edges.
+     * @param p A point, not necessarily in the graph
+     * @return The closest edge and the point on it nearest to p, or null if
+     * the graph has no edges
+     */
+    public EdgeSnap nearestEdge(Point p) {
+        return network.edgeTree.nearest(p);
     }
 
 
     /**
      * Calculates the total distance along the route, summing
-     * the distance between the first and the second Points, 
+     * the distance between the first and the second Points,
      * the second and the third, ..., the second to last and
      * the last. Distance returned in miles.
-     * @param start Beginning point. May or may not be in the graph.
-     * @param end Destination point May or may not be in the graph.
+     * @param route The list of points to walk, in order.
      * @return The distance to get from start to end
      */
     public double routeDistance(List<Point> route) {
@@ -113,7 +502,160 @@ public class GraphProcessor {
         }
         return total;
     }
-    
+
+
+    /**
+     * Returns the length of the shortest route between two points of the
+     * graph, such as ones returned by nearestPoint. Equal to
+     * routeDistance(route(start, end)) up to rounding, but answered from
+     * hub labels in microseconds once buildHubLabels or loadHubLabels has
+     * run. Otherwise it runs the search route would, with the algorithm
+     * chosen by setAlgorithm, but records no parents and never builds the
+     * path; with Algorithm.CH that also skips unpacking the shortcuts.
+     * @param start Beginning point.
+     * @param end Destination point.
+     * @return The distance in miles along the shortest route.
+     * @throws InvalidAlgorithmParameterException if there is no such route,
+     * either because start is not connected to end or because start equals end.
+     */
+    public double networkDistance(Point start, Point end) throws InvalidAlgorithmParameterException {
+        Network net = network;
+        int source = net.graph.indexOf(start);
+        int target = net.graph.indexOf(end);
+        if(source < 0 || target < 0 || source == target || net.component[source] != net.component[target]){
+            throw new InvalidAlgorithmParameterException("No valid route between points.");
+        }
+        if(net.hubLabels != null){
+            return net.hubLabels.distance(source, target);
+        }
+
+        SearchWorkspace w = SearchWorkspace.get(net.graph.vertexCount);
+        double direct = Double.POSITIVE_INFINITY;
+        w.keepParents = false;
+        try {
+            if(usesChains(net, algorithm)){
+                direct = net.chains.along(source, target);
+                net.chains.ends(source, w.sourceEnds, w.sourceCost);
+                net.chains.ends(target, w.targetEnds, w.targetCost);
+                if(PathSearch.search(net, net.chains.graph, algorithm, w.sourceEnds, w.sourceCost, w.targetEnds,
+                        w.targetCost, w) < 0){
+                    w.reachedDistance = Double.POSITIVE_INFINITY;
+                }
+            } else {
+                w.source[0] = source;
+                w.target[0] = target;
+                if(PathSearch.search(net, net.graph, algorithm, w.source, w.zero, w.target, w.zero, w) < 0){
+                    w.reachedDistance = Double.POSITIVE_INFINITY;
+                }
+            }
+        } finally {
+            w.keepParents = true;
+        }
+        double distance = Math.min(direct, w.reachedDistance);
+        if(distance == Double.POSITIVE_INFINITY){
+            throw new InvalidAlgorithmParameterException("No valid route between points.");
+        }
+        return distance;
+    }
+
+    /** Whether algorithm searches the chain-contracted graph rather than the full one. */
+    private static boolean usesChains(Network net, Algorithm algorithm) {
+        return net.chains != null && !(algorithm == Algorithm.CH && net.hierarchy != null);
+    }
+
+
+    /**
+     * Returns the network distance from each source to each target, in
+     * miles: result[i][j] is the length of the shortest route from
+     * sources.get(i) to targets.get(j), 0 when they are the same point and
+     * infinite when they are not connected. Sources are searched in
+     * parallel, and a contraction hierarchy is used when one is built.
+     * @param sources Points of the graph to measure from.
+     * @param targets Points of the graph to measure to.
+     * @return The sources.size() by targets.size() matrix of distances.
+     * @throws InvalidAlgorithmParameterException if any point is not
+     * in the graph.
+     */
+    public double[][] distanceMatrix(List<Point> sources, List<Point> targets) throws InvalidAlgorithmParameterException {
+        Network net = network;
+        return DistanceMatrix.compute(net, indicesOf(net.graph, sources), indicesOf(net.graph, targets));
+    }
+
+    private static int[] indicesOf(Graph g, List<Point> points) throws InvalidAlgorithmParameterException {
+        int[] ids = new int[points.size()];
+        for(int i = 0; i < ids.length; i++){
+            ids[i] = g.indexOf(points.get(i));
+            if(ids[i] < 0){
+                throw new InvalidAlgorithmParameterException("Point not in graph: " + points.get(i));
+            }
+        }
+        return ids;
+    }
+
+
+    /**
+     * Partitions the graph among facilities by network distance: one
+     * Dijkstra seeded with every facility at distance 0 labels each vertex
+     * with its nearest facility and the distance to it. The index then
+     * answers nearest-facility queries with a nearest-point snap and an
+     * array lookup, and can add or remove facilities afterwards. It keeps
+     * using the graph loaded when it was made.
+     * @param facilities Points of the graph; facility i is facilities.get(i).
+     * @return The network Voronoi partition of the graph among them.
+     * @throws InvalidAlgorithmParameterException if any point is not
+     * in the graph.
+     */
+    public FacilityIndex facilityIndex(List<Point> facilities) throws InvalidAlgorithmParameterException {
+        Network net = network;
+        return new FacilityIndex(net, indicesOf(net.graph, facilities));
+    }
+
+
+    /**
+     * Finds every vertex within maxMiles of source along the graph, with
+     * its distance and its parent on a shortest route back to source, in
+     * one Dijkstra that stops expanding once the budget is spent. The work
+     * is proportional to the size of the area, not of the graph.
+     * @param source Point of the graph to measure from.
+     * @param maxMiles The distance budget; negative for an empty tree.
+     * @return The vertices reached, in order of distance, source first.
+     * @throws InvalidAlgorithmParameterException if source is not in the graph.
+     */
+    public ShortestPathTree shortestPathTree(Point source, double maxMiles) throws InvalidAlgorithmParameterException {
+        Graph g = network.graph;
+        int s = g.indexOf(source);
+        if(s < 0){
+            throw new InvalidAlgorithmParameterException("Point not in graph: " + source);
+        }
+        SearchWorkspace w = SearchWorkspace.get(g.vertexCount);
+        w.reset();
+        w.pathLength = 0;
+        IndexedHeap toExplore = w.queue(SearchWorkspace.FORWARD);
+        if(maxMiles >= 0){
+            w.label(SearchWorkspace.FORWARD, s, 0.0, -1);
+            toExplore.push(s, 0.0);
+        }
+        while(!toExplore.isEmpty() && toExplore.minKey() <= maxMiles){
+            int current = toExplore.pop();
+            double d = w.dist(current);
+            w.append(current, d);
+            for(int e = g.offsets[current]; e < g.offsets[current + 1]; e++){
+                int neighbor = g.neighbors[e];
+                double candidate = d + g.weight(e);
+                if(candidate < w.dist(neighbor)){
+                    w.label(SearchWorkspace.FORWARD, neighbor, candidate, current);
+                    toExplore.push(neighbor, candidate);
+                }
+            }
+        }
+        int[] vertices = Arrays.copyOf(w.path, w.pathLength);
+        int[] parents = new int[vertices.length];
+        for(int i = 0; i < parents.length; i++){
+            parents[i] = w.parent(vertices[i]);
+        }
+        return new ShortestPathTree(g, vertices, Arrays.copyOf(w.pathDist, w.pathLength), parents);
+    }
+
 
     /**
      * Checks if input points are part of a connected component
@@ -124,28 +666,10 @@ public class GraphProcessor {
      * @return true if p2 is reachable from p1 (and vice versa)
      */
     public boolean connected(Point p1, Point p2) {
-        
-        Set<Point> visited = new HashSet<>(); 
-        Stack<Point> toExplore = new Stack<>(); 
-
-
-        Point current = p1;
-        visited.add(current);
-        toExplore.add(current);
-
-        while(!toExplore.isEmpty()){ 
-            current = toExplore.pop();
-            for(Point neighbor: adjList.get(current)){
-                if(neighbor.equals(p2)){ 
-                    return true; 
-                }
-                if(!visited.contains(neighbor)){ 
-                    toExplore.push(neighbor);
-                    visited.add(neighbor); 
-                }
-            }
-        }
-        return false;
+        Network net = network;
+        int source = net.graph.indexOf(p1);
+        int target = net.graph.indexOf(p2);
+        return source >= 0 && target >= 0 && net.component[source] == net.component[target];
     }
 
 
@@ -158,49 +682,739 @@ public class GraphProcessor {
      * @param start Beginning point.
      * @param end Destination point.
      * @return The shortest path [start, ..., end].
-     * @throws InvalidAlgorithmParameterException if there is no such route, 
+     * @throws InvalidAlgorithmParameterException if there is no such route,
      * either because start is not connected to end or because start equals end.
      */
-    public List<Point> route(Point start, Point end) throws InvalidAlgorithmParameterException { 
-        Map<Point, Double> dist = new HashMap<>(); 
-        Comparator<Point> comp = (a, b) -> (int)(dist.get(a) - dist.get(b));
-        PriorityQueue<Point> toExplore = new PriorityQueue<>(comp);  
-        Map<Point, Point> previous = new HashMap<>(); 
+    public List<Point> route(Point start, Point end) throws InvalidAlgorithmParameterException {
+        return route(start, end, algorithm);
+    }
 
-        Point current = start; 
-        dist.put(current, 0.0);
-        toExplore.add(current);
 
-        while(!toExplore.isEmpty()){ 
-            current = toExplore.remove(); 
+    /**
+     * Same as route(start, end), using the given algorithm instead of the
+     * default chosen by setAlgorithm.
+     * @param start Beginning point.
+     * @param end Destination point.
+     * @param algorithm How to search for the path.
+     * @return The shortest path [start, ..., end].
+     * @throws InvalidAlgorithmParameterException if there is no such route,
+     * either because start is not connected to end or because start equals end.
+     */
+    public List<Point> route(Point start, Point end, Algorithm algorithm) throws InvalidAlgorithmParameterException {
+        return routeResult(start, end, algorithm).getPoints();
+    }
+
 
-            for(Point neighbor: adjList.get(current)){ 
-                double weight = current.distance(neighbor); 
+    /**
+     * Same as route(start, end), but returns the route as vertex ids with
+     * its length, so callers that only need the distance or the number of
+     * vertices never create Points.
+     * @param start Beginning point.
+     * @param end Destination point.
+     * @return The shortest path from start to end.
+     * @throws InvalidAlgorithmParameterException if there is no such route,
+     * either because start is not connected to end or because start equals end.
+     */
+    public RouteResult routeResult(Point start, Point end) throws InvalidAlgorithmParameterException {
+        return routeResult(start, end, algorithm);
+    }
 
-                if(!dist.containsKey(neighbor) || dist.get(neighbor) > dist.get(current) + weight){ 
-                    toExplore.add(neighbor); 
-                    previous.put(neighbor, current);  
-                    dist.put(neighbor, dist.get(current) + weight);  
-                }
+
+    /**
+     * Same as routeResult(start, end), using the given algorithm instead of
+     * the default chosen by setAlgorithm.
+     * @param start Beginning point.
+     * @param end Destination point.
+     * @param algorithm How to search for the path.
+     * @return The shortest path from start to end.
+     * @throws InvalidAlgorithmParameterException if there is no such route,
+     * either because start is not connected to end or because start equals end.
+     */
+    public RouteResult routeResult(Point start, Point end, Algorithm algorithm) throws InvalidAlgorithmParameterException {
+        Network net = network;
+        return routeResult(net, algorithm, start, end, SearchWorkspace.get(net.graph.vertexCount));
+    }
+
+    /**
+     * Routes every {start, end} pair in pairs with the algorithm chosen by
+     * setAlgorithm, running in parallel on the executor chosen by
+     * setExecutor. All routes use the graph as it was when the call began.
+     * A pair without a route does not stop the batch; its outcome holds
+     * the exception route would have thrown.
+     * @param pairs origin/destination pairs, each an array {start, end}
+     * @return one outcome per pair, in the same order
+     */
+    public List<RouteOutcome> routeAll(List<Point[]> pairs) {
+        Network net = network;
+        Algorithm algorithm = this.algorithm;
+        RouteOutcome[] outcomes = new RouteOutcome[pairs.size()];
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            SearchWorkspace w = SearchWorkspace.get(net.graph.vertexCount);
+            for(int i = next.getAndIncrement(); i < outcomes.length; i = next.getAndIncrement()){
+                outcomes[i] = routeOutcome(net, algorithm, pairs.get(i), w);
             }
+        };
+        int tasks = Math.min(parallelism, outcomes.length);
+        CompletableFuture<?>[] running = new CompletableFuture<?>[tasks];
+        for(int t = 0; t < tasks; t++){
+            running[t] = CompletableFuture.runAsync(worker, executor);
         }
+        CompletableFuture.allOf(running).join();
+        return Collections.unmodifiableList(Arrays.asList(outcomes));
+    }
 
-        List<Point> path = new LinkedList<>(); 
-        current = end;
+    /**
+     * Streaming form of routeAll(List) for more pairs than fit in memory.
+     * Pairs are read from the given iterator as results are consumed, in
+     * chunks routed in parallel, with at most a few chunks per task of
+     * setExecutor's parallelism read ahead. The returned iterator yields
+     * outcomes in input order; only it reads pairs, so pairs need not be
+     * thread-safe. Chunks may run on fresh threads, so they borrow search
+     * workspaces from a pool kept for the call rather than from their
+     * thread.
+     * @param pairs origin/destination pairs, each an array {start, end}
+     * @return the outcome for each pair, in the same order
+     */
+    public Iterator<RouteOutcome> routeAll(Iterator<Point[]> pairs) {
+        Network net = network;
+        Algorithm algorithm = this.algorithm;
+        Executor executor = this.executor;
+        int ahead = 2 * parallelism;
+        // at most one workspace per chunk in flight, handed from chunk to chunk
+        ConcurrentLinkedQueue<SearchWorkspace> workspaces = new ConcurrentLinkedQueue<>();
+        return new Iterator<RouteOutcome>() {
+            private final ArrayDeque<CompletableFuture<RouteOutcome[]>> chunks = new ArrayDeque<>();
+            private RouteOutcome[] current = new RouteOutcome[0];
+            private int position;
 
-        if(!previous.containsKey(end)){ 
+            @Override
+            public boolean hasNext() {
+                while(position == current.length){
+                    while(chunks.size() < ahead && pairs.hasNext()){
+                        List<Point[]> chunk = new ArrayList<>(BATCH_CHUNK);
+                        while(chunk.size() < BATCH_CHUNK && pairs.hasNext()){
+                            chunk.add(pairs.next());
+                        }
+                        chunks.add(CompletableFuture.supplyAsync(() -> {
+                            SearchWorkspace w = workspaces.poll();
+                            if(w == null){
+                                w = new SearchWorkspace(net.graph.vertexCount);
+                            }
+                            RouteOutcome[] outcomes = new RouteOutcome[chunk.size()];
+                            for(int i = 0; i < outcomes.length; i++){
+                                outcomes[i] = routeOutcome(net, algorithm, chunk.get(i), w);
+                            }
+                            workspaces.add(w);
+                            return outcomes;
+                        }, executor));
+                    }
+                    if(chunks.isEmpty()){
+                        return false;
+                    }
+                    current = chunks.remove().join();
+                    position = 0;
+                }
+                return true;
+            }
+
+            @Override
+            public RouteOutcome next() {
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                return current[position++];
+            }
+        };
+    }
+
+    private static RouteOutcome routeOutcome(Network net, Algorithm algorithm, Point[] pair, SearchWorkspace w) {
+        try {
+            if(pair == null || pair.length != 2){
+                throw new IllegalArgumentException("Expected a {start, end} pair");
+            }
+            return new RouteOutcome(pair, routeResult(net, algorithm, pair[0], pair[1], w), null);
+        } catch(InvalidAlgorithmParameterException | RuntimeException failure) {
+            return new RouteOutcome(pair, null, failure);
+        }
+    }
+
+    private static RouteResult routeResult(Network net, Algorithm algorithm, Point start, Point end,
+            SearchWorkspace w) throws InvalidAlgorithmParameterException {
+        Graph g = net.graph;
+        int source = g.indexOf(start);
+        int target = g.indexOf(end);
+        if(source < 0 || target < 0 || source == target || net.component[source] != net.component[target]){
             throw new InvalidAlgorithmParameterException("No valid route between points.");
         }
+        RouteCache cache = net.routeCache;
+        if(cache != null){
+            RouteResult cached = cache.get(g, source, target);
+            if(cached != null){
+                return cached;
+            }
+        }
 
-        path.add(end); 
+        int[] path;
+        if(usesChains(net, algorithm)){
+            path = net.chains.route(net, algorithm, source, target, w);
+            if(path == null){
+                throw new InvalidAlgorithmParameterException("No valid route between points.");
+            }
+        } else {
+            w.source[0] = source;
+            w.target[0] = target;
+            if(PathSearch.search(net, g, algorithm, w.source, w.zero, w.target, w.zero, w) < 0){
+                throw new InvalidAlgorithmParameterException("No valid route between points.");
+            }
+            path = new int[w.chainLength(target)];
+            for(int i = path.length - 1, v = target; i >= 0; i--, v = w.parent(v)){
+                path[i] = v;
+            }
+        }
+        if(cache != null){
+            cache.put(path, w.reachedDistance);
+        }
+        return new RouteResult(g, path, w.reachedDistance);
+    }
 
-        while(current != start){ 
-            Point prev = previous.get(current); 
-            path.add(0, prev); 
-            current = prev;
+
+    /**
+     * Returns the shortest path between two points lying on edges of the
+     * graph, as found by nearestEdge. The path leaves start along its edge
+     * toward one of the edge's endpoints, follows the graph, and enters end
+     * along its edge; if both lie on the same edge it may simply run along
+     * it. The first and last points of the list are start.getPoint() and
+     * end.getPoint().
+     * @param start Beginning point on an edge.
+     * @param end Destination point on an edge.
+     * @return The shortest path [start, ..., end].
+     * @throws InvalidAlgorithmParameterException if start is not connected to
+     * end, start equals end, or either edge is not in the graph.
+     */
+    public List<Point> route(EdgeSnap start, EdgeSnap end) throws InvalidAlgorithmParameterException {
+        Network net = network;
+        Graph g = net.graph;
+        int[] sources = {g.indexOf(start.getFrom()), g.indexOf(start.getTo())};
+        int[] targets = {g.indexOf(end.getFrom()), g.indexOf(end.getTo())};
+        if(sources[0] < 0 || sources[1] < 0 || targets[0] < 0 || targets[1] < 0
+                || start.getPoint().equals(end.getPoint()) || net.component[sources[0]] != net.component[targets[0]]){
+            throw new InvalidAlgorithmParameterException("No valid route between points.");
+        }
+
+        double[] leave = {start.getPoint().distance(start.getFrom()), start.getPoint().distance(start.getTo())};
+        double[] enter = {end.getFrom().distance(end.getPoint()), end.getTo().distance(end.getPoint())};
+        SearchWorkspace w = SearchWorkspace.get(g.vertexCount);
+        int reached = PathSearch.search(net, g, algorithm, sources, leave, targets, enter, w);
+        int last = reached < 0 ? -1 : targets[reached];
+        double best = reached < 0 ? Double.POSITIVE_INFINITY : w.dist(last) + enter[reached];
+        boolean sameEdge = (sources[0] == targets[0] && sources[1] == targets[1])
+                || (sources[0] == targets[1] && sources[1] == targets[0]);
+        List<Point> path = new ArrayList<>();
+        path.add(start.getPoint());
+        if(sameEdge && start.getPoint().distance(end.getPoint()) <= best){
+            path.add(end.getPoint());
+            return path;
+        }
+        if(last < 0){
+            throw new InvalidAlgorithmParameterException("No valid route between points.");
+        }
+        appendPath(g, w, last, path);
+        if(!path.get(path.size() - 1).equals(end.getPoint())){
+            path.add(end.getPoint());
+        }
+        if(path.get(1).equals(path.get(0))){
+            path.remove(0);
         }
         return path;
     }
 
 
+    /** Appends the vertices of the search path ending at last, first vertex first. */
+    private static void appendPath(Graph g, SearchWorkspace w, int last, List<Point> path) {
+        int from = path.size();
+        for(int current = last; current != -1; current = w.parent(current)){
+            path.add(g.point(current));
+        }
+        Collections.reverse(path.subList(from, path.size()));
+    }
+
+
+    /**
+     * A point on an edge of the graph, as returned by nearestEdge: the
+     * edge's endpoints, the point on the edge closest to the query, how far
+     * along the edge that point is, and its distance from the query.
+     */
+    public static final class EdgeSnap {
+        private final Point from;
+        private final Point to;
+        private final Point point;
+        private final double fraction;
+        private final double distance;
+
+        EdgeSnap(Point from, Point to, double fraction, Point query) {
+            this.from = from;
+            this.to = to;
+            this.fraction = fraction;
+            this.point = fraction == 0 ? from : fraction == 1 ? to
+                    : new Point(from.getLat() + fraction * (to.getLat() - from.getLat()),
+                                from.getLon() + fraction * (to.getLon() - from.getLon()));
+            this.distance = query.distance(point);
+        }
+
+        /** @return the endpoint of the edge the fraction is measured from */
+        public Point getFrom() {
+            return from;
+        }
+
+        /** @return the other endpoint of the edge */
+        public Point getTo() {
+            return to;
+        }
+
+        /** @return the point on the edge closest to the query */
+        public Point getPoint() {
+            return point;
+        }
+
+        /** @return where getPoint() lies along the edge, 0 at getFrom() and 1 at getTo() */
+        public double getFraction() {
+            return fraction;
+        }
+
+        /** @return the straight-line distance in miles from the query to getPoint() */
+        public double getDistance() {
+            return distance;
+        }
+
+        @Override
+        public String toString() {
+            return point + " on " + from + "-" + to;
+        }
+    }
+
+
+    /**
+     * A route as returned by routeResult: the ids of the vertices along it
+     * and its length as summed by the search. getPoints() is a random
+     * access view that creates each Point the first time it is read.
+     */
+    public static final class RouteResult {
+        private final Graph graph;
+        private final int[] path;
+        private final double distance;
+        private List<Point> points;
+
+        RouteResult(Graph graph, int[] path, double distance) {
+            this.graph = graph;
+            this.path = path;
+            this.distance = distance;
+        }
+
+        /** @return the length of the route in miles */
+        public double getDistance() {
+            return distance;
+        }
+
+        /** @return the number of vertices on the route, start and end included */
+        public int getVertexCount() {
+            return path.length;
+        }
+
+        /** @return the route [start, ..., end] as an unmodifiable list */
+        public List<Point> getPoints() {
+            if(points == null){
+                points = new PointList();
+            }
+            return points;
+        }
+
+        int[] vertexIds() {
+            return path;
+        }
+
+        @Override
+        public String toString() {
+            return path.length + " vertices, " + distance + " miles";
+        }
+
+        private final class PointList extends AbstractList<Point> implements RandomAccess {
+            private final Point[] cache = new Point[path.length];
+
+            @Override
+            public Point get(int i) {
+                Point p = cache[i];
+                if(p == null){
+                    p = graph.point(path[i]);
+                    cache[i] = p;
+                }
+                return p;
+            }
+
+            @Override
+            public int size() {
+                return path.length;
+            }
+        }
+    }
+
+
+    /**
+     * What routeAll found for one origin/destination pair: either its
+     * route or the exception routing it threw.
+     */
+    public static final class RouteOutcome {
+        private final Point[] pair;
+        private final RouteResult result;
+        private final Exception failure;
+
+        RouteOutcome(Point[] pair, RouteResult result, Exception failure) {
+            this.pair = pair;
+            this.result = result;
+            this.failure = failure;
+        }
+
+        /** @return the {start, end} pair this outcome is for */
+        public Point[] getPair() {
+            return pair;
+        }
+
+        /** @return true if a route was found */
+        public boolean isRouted() {
+            return result != null;
+        }
+
+        /** @return the route, or null if there was none */
+        public RouteResult getResult() {
+            return result;
+        }
+
+        /**
+         * @return why there is no route, usually an
+         * InvalidAlgorithmParameterException, or null if there is one
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            return isRouted() ? result.toString() : failure.toString();
+        }
+    }
+
+
+    /**
+     * Counters of the route cache, as returned by routeCacheStats.
+     */
+    public static final class RouteCacheStats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int size;
+
+        RouteCacheStats(long hits, long misses, long evictions, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        /** @return routes answered from the cache */
+        public long getHits() {
+            return hits;
+        }
+
+        /** @return routes that had to be searched */
+        public long getMisses() {
+            return misses;
+        }
+
+        /** @return routes dropped to make room for newer ones */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /** @return routes currently cached */
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return hits + " hits, " + misses + " misses, " + evictions + " evictions, " + size + " cached";
+        }
+    }
+
+
+    /**
+     * The vertices within a distance budget of a source, as returned by
+     * shortestPathTree, in three parallel arrays ordered by distance:
+     * vertex ids, their network distance from the source, and the id of
+     * the previous vertex on a shortest route from the source (-1 for the
+     * source itself). The arrays are returned as is, not copied, and must
+     * not be modified.
+     */
+    public static final class ShortestPathTree {
+        private final Graph graph;
+        private final int[] vertices;
+        private final double[] distances;
+        private final int[] parents;
+
+        ShortestPathTree(Graph graph, int[] vertices, double[] distances, int[] parents) {
+            this.graph = graph;
+            this.vertices = vertices;
+            this.distances = distances;
+            this.parents = parents;
+        }
+
+        /** @return the number of vertices reached */
+        public int size() {
+            return vertices.length;
+        }
+
+        /** @return the ids of the vertices reached, nearest first */
+        public int[] getVertexIds() {
+            return vertices;
+        }
+
+        /** @return the distance in miles of each vertex from the source */
+        public double[] getDistances() {
+            return distances;
+        }
+
+        /** @return the id of the vertex before each vertex on its route, -1 for the source */
+        public int[] getParentIds() {
+            return parents;
+        }
+
+        /** @return the point of the i-th vertex reached */
+        public Point getPoint(int i) {
+            return graph.point(vertices[i]);
+        }
+
+        /**
+         * Finds the edge of the isochrone: the vertices reached that have
+         * a neighbor beyond the budget, which the tree did not reach.
+         * @return indices of the boundary vertices, nearest first
+         */
+        public int[] boundary() {
+            int[] sorted = vertices.clone();
+            Arrays.sort(sorted);
+            int[] boundary = new int[vertices.length];
+            int count = 0;
+            for(int i = 0; i < vertices.length; i++){
+                int v = vertices[i];
+                for(int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++){
+                    if(Arrays.binarySearch(sorted, graph.neighbors[e]) < 0){
+                        boundary[count++] = i;
+                        break;
+                    }
+                }
+            }
+            return Arrays.copyOf(boundary, count);
+        }
+
+        @Override
+        public String toString() {
+            return vertices.length + " vertices";
+        }
+    }
+
+
+    /**
+     * Nearest facility of every vertex by network distance, as returned by
+     * facilityIndex. Each facility owns the region of vertices closer to
+     * it than to any other, and every vertex of a region is reached from a
+     * neighbor in the same region, so a region can be found by walking out
+     * from its facility. Adding a facility runs Dijkstra from it only as
+     * far as it is nearer than the current labels; removing one clears its
+     * region and regrows the neighboring regions into it from the border.
+     * Queries may run concurrently with each other, but not with
+     * addFacility or removeFacility.
+     */
+    public static final class FacilityIndex {
+        private final Graph graph;
+        private final KdTree vertexTree;
+        // per vertex: id of the nearest facility (-1 if none is connected) and its distance
+        private final int[] nearest;
+        private final double[] distance;
+        // vertex of each facility id, -1 once removed
+        private int[] facilities = new int[8];
+        private int facilityCount;
+
+        FacilityIndex(Network net, int[] vertices) {
+            this.graph = net.graph;
+            this.vertexTree = net.vertexTree;
+            nearest = new int[graph.vertexCount];
+            distance = new double[graph.vertexCount];
+            Arrays.fill(nearest, -1);
+            Arrays.fill(distance, Double.POSITIVE_INFINITY);
+            IndexedHeap queue = queue();
+            for(int v : vertices){
+                seed(register(v), v, queue);
+            }
+            grow(queue);
+        }
+
+        /**
+         * @param p A point, not necessarily in the graph.
+         * @return the id of the facility nearest to the graph point nearest
+         * p, or -1 if no facility is connected to it
+         */
+        public int nearestFacility(Point p) {
+            int v = vertexTree.nearest(p.getLat(), p.getLon());
+            return v < 0 ? -1 : nearest[v];
+        }
+
+        /**
+         * @param p A point, not necessarily in the graph.
+         * @return the network distance in miles from the graph point nearest
+         * p to its nearest facility, infinite if none is connected to it
+         */
+        public double facilityDistance(Point p) {
+            int v = vertexTree.nearest(p.getLat(), p.getLon());
+            return v < 0 ? Double.POSITIVE_INFINITY : distance[v];
+        }
+
+        /** @return the point of facility id, or null if it was removed */
+        public Point getFacility(int id) {
+            checkId(id);
+            return facilities[id] < 0 ? null : graph.point(facilities[id]);
+        }
+
+        /** @return the number of facility ids handed out, removed ones included */
+        public int getFacilityCount() {
+            return facilityCount;
+        }
+
+        /** @return the nearest facility id of each vertex id, -1 where none is connected; not a copy */
+        public int[] getNearestFacilities() {
+            return nearest;
+        }
+
+        /** @return the distance from each vertex id to its nearest facility; not a copy */
+        public double[] getDistances() {
+            return distance;
+        }
+
+        /**
+         * Adds a facility and relabels the vertices now nearer to it.
+         * @param p Point of the graph.
+         * @return the id of the new facility, one more than the last
+         * @throws InvalidAlgorithmParameterException if p is not in the graph.
+         */
+        public int addFacility(Point p) throws InvalidAlgorithmParameterException {
+            int v = graph.indexOf(p);
+            if(v < 0){
+                throw new InvalidAlgorithmParameterException("Point not in graph: " + p);
+            }
+            int id = register(v);
+            IndexedHeap queue = queue();
+            seed(id, v, queue);
+            grow(queue);
+            return id;
+        }
+
+        /**
+         * Removes a facility and hands its region to the facilities next
+         * nearest to each of its vertices.
+         * @param id a facility id that has not been removed
+         */
+        public void removeFacility(int id) {
+            checkId(id);
+            int f = facilities[id];
+            if(f < 0){
+                throw new IllegalArgumentException("Facility " + id + " was already removed");
+            }
+            facilities[id] = -1;
+            SearchWorkspace w = SearchWorkspace.get(graph.vertexCount);
+            w.stackSize = 0;
+            w.pathLength = 0;
+            if(nearest[f] == id){
+                clear(f, w);
+            }
+            while(w.stackSize > 0){
+                int v = w.stack[--w.stackSize];
+                for(int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++){
+                    if(nearest[graph.neighbors[e]] == id){
+                        clear(graph.neighbors[e], w);
+                    }
+                }
+            }
+
+            IndexedHeap queue = queue();
+            for(int i = 0; i < w.pathLength; i++){
+                int v = w.path[i];
+                for(int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++){
+                    int u = graph.neighbors[e];
+                    double candidate = distance[u] + graph.weight(e);
+                    if(nearest[u] >= 0 && candidate < distance[v]){
+                        distance[v] = candidate;
+                        nearest[v] = nearest[u];
+                        queue.push(v, candidate);
+                    }
+                }
+            }
+            for(int other = 0; other < facilityCount; other++){
+                if(facilities[other] >= 0){
+                    seed(other, facilities[other], queue);
+                }
+            }
+            grow(queue);
+        }
+
+        /** Unlabels v and records it in w's path and stack. */
+        private void clear(int v, SearchWorkspace w) {
+            nearest[v] = -1;
+            distance[v] = Double.POSITIVE_INFINITY;
+            w.append(v, 0);
+            w.push(v);
+        }
+
+        private int register(int v) {
+            if(facilityCount == facilities.length){
+                facilities = Arrays.copyOf(facilities, 2 * facilityCount);
+            }
+            facilities[facilityCount] = v;
+            return facilityCount++;
+        }
+
+        private void seed(int id, int v, IndexedHeap queue) {
+            if(0 < distance[v]){
+                distance[v] = 0;
+                nearest[v] = id;
+                queue.push(v, 0);
+            }
+        }
+
+        private IndexedHeap queue() {
+            SearchWorkspace w = SearchWorkspace.get(graph.vertexCount);
+            w.reset();
+            return w.queue(SearchWorkspace.FORWARD);
+        }
+
+        /** Dijkstra from the queued vertices, relabelling every vertex it gets nearer to. */
+        private void grow(IndexedHeap queue) {
+            while(!queue.isEmpty()){
+                int current = queue.pop();
+                double d = distance[current];
+                for(int e = graph.offsets[current]; e < graph.offsets[current + 1]; e++){
+                    int neighbor = graph.neighbors[e];
+                    double candidate = d + graph.weight(e);
+                    if(candidate < distance[neighbor]){
+                        distance[neighbor] = candidate;
+                        nearest[neighbor] = nearest[current];
+                        queue.push(neighbor, candidate);
+                    }
+                }
+            }
+        }
+
+        private void checkId(int id) {
+            if(id < 0 || id >= facilityCount){
+                throw new IllegalArgumentException("No facility " + id);
+            }
+        }
+    }
 }
@@ -0,0 +1,171 @@
+import java.util.zip.CRC32;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Versioned binary image of a Graph. A 64 byte little-endian header
+ *
+ *   0 magic, 4 version, 8 flags, 12 vertex count, 16 arc count,
+ *   24 source .graph length, 32 source .graph modification time,
+ *   40 payload length, 48 CRC32 of the payload
+ *
+ * is followed by the payload: lat and lon (double[n] each), arc
+ * weights (double[arcs]), offsets (int[n + 1]), neighbors
+ * (int[arcs]), byCoordinate (int[n]) and, when FLAG_NAMES is set,
+ * nameOffsets (int[n + 1]) and nameBytes. Reading maps the file and
+ * bulk-copies each section into its array, so there is no parsing or
+ * sorting step.
+ */
+final class GraphSnapshot {
+    static final int MAGIC = 0x47523650; // "P6RG" in file byte order
+    static final int VERSION = 2;
+    static final int FLAG_NAMES = 1;
+    static final int HEADER_BYTES = 64;
+
+    private GraphSnapshot() {
+    }
+
+    static boolean isSnapshot(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        long start = channel.position();
+        while(magic.hasRemaining() && channel.read(magic, start + magic.position()) > 0){
+            // keep reading until the magic is filled or the file ends
+        }
+        return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+    }
+
+    private static long payloadBytes(int n, int arcs, int nameBytes, boolean names) {
+        long bytes = 16L * n + 8L * arcs + 4L * (n + 1) + 4L * arcs + 4L * n;
+        if(names){
+            bytes += 4L * (n + 1) + nameBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes g to file via a temporary file and an atomic rename, so
+     * a reader never sees a half written snapshot. Weights are always
+     * the exact doubles, even when g holds them rounded to float. The
+     * source length and modification time identify the .graph file it
+     * was built from (-1 when there is none).
+     */
+    static void write(Graph g, Path file, long sourceLength, long sourceModified) throws IOException {
+        int n = g.vertexCount;
+        int arcs = g.neighbors.length;
+        boolean names = g.nameBytes != null;
+        long payload = payloadBytes(n, arcs, names ? g.nameBytes.length : 0, names);
+        if(HEADER_BYTES + payload > Integer.MAX_VALUE){
+            throw new IOException("Graph too large for a snapshot");
+        }
+
+        ByteBuffer out = ByteBuffer.allocate((int) (HEADER_BYTES + payload)).order(ByteOrder.LITTLE_ENDIAN);
+        out.position(HEADER_BYTES);
+        out.asDoubleBuffer().put(g.lat).put(g.lon);
+        out.position(out.position() + 16 * n);
+        for(int v = 0; v < n; v++){
+            for(int e = g.offsets[v]; e < g.offsets[v + 1]; e++){
+                // float weights are recomputed exactly, so loading never inherits their rounding
+                int u = g.neighbors[e];
+                out.putDouble(g.weights != null ? g.weights[e]
+                        : GeoMath.distance(g.lat[v], g.lon[v], g.lat[u], g.lon[u]));
+            }
+        }
+        out.asIntBuffer().put(g.offsets).put(g.neighbors).put(g.byCoordinate);
+        out.position(out.position() + 4 * (n + 1 + arcs + n));
+        if(names){
+            out.asIntBuffer().put(g.nameOffsets);
+            out.position(out.position() + 4 * (n + 1));
+            out.put(g.nameBytes);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out.flip().position(HEADER_BYTES));
+        out.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, names ? FLAG_NAMES : 0)
+                .putInt(12, n).putInt(16, arcs)
+                .putLong(24, sourceLength).putLong(32, sourceModified)
+                .putLong(40, payload).putLong(48, crc.getValue());
+        out.position(0);
+
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)){
+                while(out.hasRemaining()){
+                    channel.write(out);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Opens a snapshot through a memory map.
+     * @param sourceLength expected source .graph length, or -1 to skip
+     * the staleness check
+     * @param sourceModified expected source .graph modification time, or -1
+     * @return the graph, or null if the snapshot was built from a
+     * different .graph file
+     * @throws IOException if the snapshot is truncated, corrupt or
+     * of another version
+     */
+    static Graph read(FileChannel channel, long sourceLength, long sourceModified) throws IOException {
+        long size = channel.size() - channel.position();
+        if(size < HEADER_BYTES || size > Integer.MAX_VALUE){
+            throw new IOException("Not a graph snapshot");
+        }
+        ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, channel.position(), size)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if(in.getInt(0) != MAGIC){
+            throw new IOException("Not a graph snapshot");
+        }
+        if(in.getInt(4) != VERSION){
+            throw new IOException("Unsupported snapshot version " + in.getInt(4));
+        }
+        if(sourceLength != -1 && (in.getLong(24) != sourceLength || in.getLong(32) != sourceModified)){
+            return null;
+        }
+        boolean names = (in.getInt(8) & FLAG_NAMES) != 0;
+        int n = in.getInt(12);
+        int arcs = in.getInt(16);
+        long payload = in.getLong(40);
+        if(n < 0 || arcs < 0 || HEADER_BYTES + payload != size
+                || payload < payloadBytes(n, arcs, 0, names)){
+            throw new IOException("Truncated graph snapshot");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate().position(HEADER_BYTES));
+        if(crc.getValue() != in.getLong(48)){
+            throw new IOException("Graph snapshot checksum mismatch");
+        }
+
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        double[] weights = new double[arcs];
+        int[] offsets = new int[n + 1];
+        int[] neighbors = new int[arcs];
+        int[] byCoordinate = new int[n];
+        in.position(HEADER_BYTES);
+        in.asDoubleBuffer().get(lat).get(lon).get(weights);
+        in.position(in.position() + 16 * n + 8 * arcs);
+        in.asIntBuffer().get(offsets).get(neighbors).get(byCoordinate);
+        in.position(in.position() + 4 * (n + 1 + arcs + n));
+
+        int[] nameOffsets = null;
+        byte[] nameBytes = null;
+        if(names){
+            nameOffsets = new int[n + 1];
+            in.asIntBuffer().get(nameOffsets);
+            in.position(in.position() + 4 * (n + 1));
+            nameBytes = new byte[in.remaining()];
+            in.get(nameBytes);
+        }
+        return new Graph(lat, lon, offsets, neighbors, weights, null, byCoordinate, nameOffsets, nameBytes);
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * A* lower bound on the distance left from a vertex to the nearest of a
+ * set of targets (plus that target's cost to finish).
+ *
+ * Point.distance itself is not usable here: it scales longitude by the
+ * cosine of the mean latitude of its two points, so it can break the
+ * triangle inequality by around a percent over long spans, and A* would
+ * then miss shortest routes. Instead every edge is bounded below by the
+ * same formula with the smallest cosine in the graph, graph.minLonScale.
+ * That is a fixed weighted Euclidean norm of the latitude-longitude
+ * difference, so summed over any path it is at least the norm between
+ * the path's ends: the bound is admissible and consistent. With
+ * landmarks the larger of that and the landmark bound is used.
+ */
+final class Heuristic {
+    private Graph graph;
+    private Landmarks landmarks;
+    private int[] targets;
+    private double[] targetCost;
+    private double[] targetLat = new double[2];
+    private double[] targetLon = new double[2];
+    private double scaleLat;
+    private double scaleLon;
+
+    /** Aims the bound at new targets, reusing this heuristic's arrays. */
+    Heuristic reset(Graph graph, int[] targets, double[] targetCost, Landmarks landmarks) {
+        this.graph = graph;
+        this.landmarks = landmarks;
+        this.targets = targets;
+        this.targetCost = targetCost;
+        if(targetLat.length < targets.length){
+            targetLat = new double[targets.length];
+            targetLon = new double[targets.length];
+        }
+        for(int i = 0; i < targets.length; i++){
+            targetLat[i] = graph.lat[targets[i]];
+            targetLon[i] = graph.lon[targets[i]];
+        }
+        // shave a few ulps so rounding never lifts the bound above an exact edge weight;
+        // float weights may each round down by up to half a float ulp, 2^-24 relative
+        scaleLat = GeoMath.EARTH_RADIUS * Math.PI / 180 * (graph.roundedWeights ? 1 - 0x1p-23 : 1 - 1e-9);
+        scaleLon = scaleLat * graph.minLonScale;
+        return this;
+    }
+
+    double estimate(int v) {
+        double best = Double.POSITIVE_INFINITY;
+        for(int i = 0; i < targets.length; i++){
+            double x = scaleLon * (graph.lon[v] - targetLon[i]);
+            double y = scaleLat * (graph.lat[v] - targetLat[i]);
+            double h = Math.sqrt(x * x + y * y);
+            if(landmarks != null){
+                h = Math.max(h, landmarks.bound(v, targets[i]));
+            }
+            best = Math.min(best, h + targetCost[i]);
+        }
+        return best;
+    }
+}
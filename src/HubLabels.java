@@ -0,0 +1,215 @@
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Hub labels derived from a contraction hierarchy. The label of v lists
+ * hubs h with the distance from v to h, sorted by hub; any two vertices
+ * of a component share a hub on a shortest path between them, so their
+ * distance is the smallest d(a, h) + d(h, b) over the hubs their labels
+ * have in common, found by merging the two lists. The labels live off
+ * the heap in one buffer laid out exactly like the file written by
+ * write, so loading one is just a memory map.
+ */
+final class HubLabels {
+    static final int MAGIC = 0x4c483650; // "P6HL" in file byte order
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+
+    final int vertexCount;
+    // header, then int offsets[n + 1] into the entries, int hubs[], padding to 8, double dists[]
+    private final ByteBuffer data;
+    private final int hubsBase;
+    private final int distsBase;
+
+    private HubLabels(ByteBuffer data) {
+        this.data = data;
+        this.vertexCount = data.getInt(8);
+        long entries = data.getLong(16);
+        this.hubsBase = HEADER_BYTES + 4 * (vertexCount + 1);
+        this.distsBase = distsBase(vertexCount, entries);
+    }
+
+    private static int distsBase(int n, long entries) {
+        return (int) ((HEADER_BYTES + 4L * (n + 1) + 4L * entries + 7) & ~7L);
+    }
+
+    /**
+     * Labels each vertex, from the top of the hierarchy down, with its
+     * upward search space: itself at distance 0 plus the labels of its
+     * upward neighbors shifted by the arc weight. An entry is then
+     * pruned when the labels already give a shorter way to its hub, as
+     * it cannot be the hub of any shortest path.
+     */
+    static HubLabels build(Graph g, ContractionHierarchy ch) {
+        int n = g.vertexCount;
+        int[] byRank = new int[n];
+        for(int v = 0; v < n; v++){
+            byRank[ch.rank[v]] = v;
+        }
+        int[][] hubs = new int[n][];
+        double[][] dists = new double[n][];
+        double[] scratch = new double[n];
+        Arrays.fill(scratch, Double.POSITIVE_INFINITY);
+        int[] found = new int[n];
+        long entries = 0;
+        for(int r = n - 1; r >= 0; r--){
+            int v = byRank[r];
+            int count = 0;
+            scratch[v] = 0;
+            found[count++] = v;
+            for(int e = ch.upOffsets[v]; e < ch.upOffsets[v + 1]; e++){
+                int u = ch.upNeighbors[e];
+                for(int i = 0; i < hubs[u].length; i++){
+                    int h = hubs[u][i];
+                    double d = ch.upWeights[e] + dists[u][i];
+                    if(d < scratch[h]){
+                        if(scratch[h] == Double.POSITIVE_INFINITY){
+                            found[count++] = h;
+                        }
+                        scratch[h] = d;
+                    }
+                }
+            }
+            Arrays.sort(found, 0, count);
+            int[] candidateHubs = Arrays.copyOf(found, count);
+            double[] candidateDists = new double[count];
+            for(int i = 0; i < count; i++){
+                candidateDists[i] = scratch[found[i]];
+                scratch[found[i]] = Double.POSITIVE_INFINITY;
+            }
+
+            int kept = 0;
+            for(int i = 0; i < count; i++){
+                int h = candidateHubs[i];
+                if(h == v || merge(candidateHubs, candidateDists, hubs[h], dists[h]) >= candidateDists[i]){
+                    found[kept] = h;
+                    scratch[kept++] = candidateDists[i];
+                }
+            }
+            hubs[v] = Arrays.copyOf(found, kept);
+            dists[v] = Arrays.copyOf(scratch, kept);
+            Arrays.fill(scratch, 0, kept, Double.POSITIVE_INFINITY);
+            entries += kept;
+        }
+
+        long size = distsBase(n, entries) + 8L * entries;
+        if(size > Integer.MAX_VALUE){
+            throw new IllegalStateException("Hub labels too large: " + entries + " entries");
+        }
+        ByteBuffer data = ByteBuffer.allocateDirect((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, n).putInt(12, g.neighbors.length)
+                .putLong(16, entries).putLong(24, g.checksum()).putLong(32, size - HEADER_BYTES);
+        int hubsBase = HEADER_BYTES + 4 * (n + 1);
+        int distsBase = distsBase(n, entries);
+        int next = 0;
+        for(int v = 0; v < n; v++){
+            data.putInt(HEADER_BYTES + 4 * v, next);
+            for(int i = 0; i < hubs[v].length; i++, next++){
+                data.putInt(hubsBase + 4 * next, hubs[v][i]);
+                data.putDouble(distsBase + 8 * next, dists[v][i]);
+            }
+        }
+        data.putInt(HEADER_BYTES + 4 * n, next);
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate().position(HEADER_BYTES));
+        data.putLong(40, crc.getValue());
+        return new HubLabels(data);
+    }
+
+    /** Smallest sum of distances over the hubs two sorted label arrays share. */
+    private static double merge(int[] hubsA, double[] distsA, int[] hubsB, double[] distsB) {
+        double best = Double.POSITIVE_INFINITY;
+        int i = 0;
+        int j = 0;
+        while(i < hubsA.length && j < hubsB.length){
+            if(hubsA[i] < hubsB[j]){
+                i++;
+            } else if(hubsA[i] > hubsB[j]){
+                j++;
+            } else {
+                best = Math.min(best, distsA[i++] + distsB[j++]);
+            }
+        }
+        return best;
+    }
+
+    /** Network distance between a and b, infinite if they are not connected. */
+    double distance(int a, int b) {
+        int i = data.getInt(HEADER_BYTES + 4 * a);
+        int iEnd = data.getInt(HEADER_BYTES + 4 * a + 4);
+        int j = data.getInt(HEADER_BYTES + 4 * b);
+        int jEnd = data.getInt(HEADER_BYTES + 4 * b + 4);
+        double best = Double.POSITIVE_INFINITY;
+        while(i < iEnd && j < jEnd){
+            int hubA = data.getInt(hubsBase + 4 * i);
+            int hubB = data.getInt(hubsBase + 4 * j);
+            if(hubA < hubB){
+                i++;
+            } else if(hubA > hubB){
+                j++;
+            } else {
+                best = Math.min(best, data.getDouble(distsBase + 8 * i++) + data.getDouble(distsBase + 8 * j++));
+            }
+        }
+        return best;
+    }
+
+    /** Writes the labels via a temporary file and an atomic rename, like GraphSnapshot. */
+    void write(Path file) throws IOException {
+        ByteBuffer out = data.duplicate().clear();
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)){
+                while(out.hasRemaining()){
+                    channel.write(out);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Maps labels written by write. Entries are read straight from the
+     * mapping, so nothing is copied onto the heap.
+     * @return the labels, or null if built for a graph other than g
+     * @throws IOException if the file is truncated, corrupt or of
+     * another version
+     */
+    static HubLabels read(FileChannel channel, Graph g) throws IOException {
+        long size = channel.size();
+        if(size < HEADER_BYTES || size > Integer.MAX_VALUE){
+            throw new IOException("Not a hub label file");
+        }
+        ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        if(in.getInt(0) != MAGIC){
+            throw new IOException("Not a hub label file");
+        }
+        if(in.getInt(4) != VERSION){
+            throw new IOException("Unsupported hub label file version " + in.getInt(4));
+        }
+        int n = in.getInt(8);
+        if(n != g.vertexCount || in.getInt(12) != g.neighbors.length || in.getLong(24) != g.checksum()){
+            return null;
+        }
+        long entries = in.getLong(16);
+        if(entries < 0 || in.getLong(32) != size - HEADER_BYTES || size != distsBase(n, entries) + 8L * entries){
+            throw new IOException("Truncated hub label file");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate().position(HEADER_BYTES));
+        if(crc.getValue() != in.getLong(40)){
+            throw new IOException("Hub label file checksum mismatch");
+        }
+        return new HubLabels(in);
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.Arrays;
+
+/**
+ * Min-heap of vertex ids keyed by double, with one slot per vertex so a
+ * key can be lowered in place (decrease-key) instead of pushing a
+ * duplicate. Stored as an implicit 4-ary tree, which is shallower than a
+ * binary heap and keeps the children of a node in one cache line.
+ */
+final class IndexedHeap {
+    private final int[] heap;
+    // position of each vertex in heap, or -1 when it is not queued
+    private final int[] position;
+    private final double[] key;
+    private int size;
+
+    IndexedHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        key = new double[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    double minKey() {
+        return key[heap[0]];
+    }
+
+    /** Empties the heap in time proportional to its size. */
+    void clear() {
+        for(int i = 0; i < size; i++){
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /** Queues v with the given key, or lowers its key if it is queued with a larger one. */
+    void push(int v, double k) {
+        int i = position[v];
+        if(i < 0){
+            i = size++;
+        } else if(k >= key[v]){
+            return;
+        }
+        key[v] = k;
+        while(i > 0){
+            int parent = (i - 1) >>> 2;
+            int p = heap[parent];
+            if(key[p] <= k){
+                break;
+            }
+            heap[i] = p;
+            position[p] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        position[v] = i;
+    }
+
+    /** Removes and returns the vertex with the smallest key. */
+    int pop() {
+        int top = heap[0];
+        position[top] = -1;
+        int last = heap[--size];
+        if(size > 0){
+            double k = key[last];
+            int i = 0;
+            while(true){
+                int child = 4 * i + 1;
+                if(child >= size){
+                    break;
+                }
+                int best = child;
+                int end = Math.min(child + 4, size);
+                for(int c = child + 1; c < end; c++){
+                    if(key[heap[c]] < key[heap[best]]){
+                        best = c;
+                    }
+                }
+                if(key[heap[best]] >= k){
+                    break;
+                }
+                heap[i] = heap[best];
+                position[heap[i]] = i;
+                i = best;
+            }
+            heap[i] = last;
+            position[last] = i;
+        }
+        return top;
+    }
+}
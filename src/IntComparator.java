@@ -0,0 +1,4 @@
+/** Comparison of two ints by some external key, used to sort id arrays without boxing. */
+interface IntComparator {
+    int compare(int a, int b);
+}
@@ -0,0 +1,35 @@
+/** Sorting helpers for int id arrays ordered by an IntComparator. */
+final class IntSort {
+    private IntSort() {
+    }
+
+    /** Sorts a[from, to) in place; O(n log n) heapsort, so there is no recursion or scratch array. */
+    static void sort(int[] a, int from, int to, IntComparator c) {
+        int n = to - from;
+        for(int i = n / 2 - 1; i >= 0; i--){
+            siftDown(a, from, i, n, c);
+        }
+        for(int end = n - 1; end > 0; end--){
+            int tmp = a[from];
+            a[from] = a[from + end];
+            a[from + end] = tmp;
+            siftDown(a, from, 0, end, c);
+        }
+    }
+
+    private static void siftDown(int[] a, int base, int i, int n, IntComparator c) {
+        int x = a[base + i];
+        while(2 * i + 1 < n){
+            int child = 2 * i + 1;
+            if(child + 1 < n && c.compare(a[base + child + 1], a[base + child]) > 0){
+                child++;
+            }
+            if(c.compare(a[base + child], x) <= 0){
+                break;
+            }
+            a[base + i] = a[base + child];
+            i = child;
+        }
+        a[base + i] = x;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Exact nearest-vertex index under the Point.distance metric: a k-d tree
+ * stored implicitly in one id array. The subtree covering ids[lo, hi)
+ * is rooted at ids[(lo + hi) / 2], which splits its range on latitude at
+ * even depths and on longitude at odd depths. Queries keep the bounding
+ * box of the current subtree and skip any subtree whose box lower bound
+ * is no better than the best vertex found so far.
+ */
+final class KdTree {
+    final Graph graph;
+    private final int[] ids;
+    private final double minLat;
+    private final double maxLat;
+    private final double minLon;
+    private final double maxLon;
+
+    KdTree(Graph graph) {
+        this.graph = graph;
+        int n = graph.vertexCount;
+        ids = new int[n];
+        double lowLat = Double.POSITIVE_INFINITY;
+        double highLat = Double.NEGATIVE_INFINITY;
+        double lowLon = Double.POSITIVE_INFINITY;
+        double highLon = Double.NEGATIVE_INFINITY;
+        for(int v = 0; v < n; v++){
+            ids[v] = v;
+            lowLat = Math.min(lowLat, graph.lat[v]);
+            highLat = Math.max(highLat, graph.lat[v]);
+            lowLon = Math.min(lowLon, graph.lon[v]);
+            highLon = Math.max(highLon, graph.lon[v]);
+        }
+        minLat = lowLat;
+        maxLat = highLat;
+        minLon = lowLon;
+        maxLon = highLon;
+        build(0, n, 0);
+    }
+
+    private void build(int lo, int hi, int depth) {
+        if(hi - lo <= 1){
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi, mid, depth % 2 == 0 ? graph.lat : graph.lon);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /** Quickselect: puts the k-th smallest of ids[lo, hi) by key at k, smaller keys before it, larger after. */
+    private void select(int lo, int hi, int k, double[] key) {
+        hi--;
+        while(lo < hi){
+            double pivot = key[ids[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while(i <= j){
+                while(key[ids[i]] < pivot){
+                    i++;
+                }
+                while(key[ids[j]] > pivot){
+                    j--;
+                }
+                if(i <= j){
+                    int tmp = ids[i];
+                    ids[i++] = ids[j];
+                    ids[j--] = tmp;
+                }
+            }
+            if(k <= j){
+                hi = j;
+            } else if(k >= i){
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /** @return the id of the vertex closest to (lat, lon), or -1 if the graph is empty */
+    int nearest(double lat, double lon) {
+        if(ids.length == 0){
+            return -1;
+        }
+        Search search = new Search(lat, lon);
+        nearest(search, 0, ids.length, 0, minLat, maxLat, minLon, maxLon);
+        return search.bestId;
+    }
+
+    private void nearest(Search s, int lo, int hi, int depth,
+            double boxMinLat, double boxMaxLat, double boxMinLon, double boxMaxLon) {
+        if(lo >= hi
+                || GeoMath.boxLowerBound(s.lat, s.lon, boxMinLat, boxMaxLat, boxMinLon, boxMaxLon) >= s.best){
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int v = ids[mid];
+        double d = GeoMath.distance(s.lat, s.lon, graph.lat[v], graph.lon[v]);
+        if(d < s.best || (d == s.best && v < s.bestId)){
+            s.best = d;
+            s.bestId = v;
+        }
+        if(depth % 2 == 0){
+            double split = graph.lat[v];
+            if(s.lat < split){
+                nearest(s, lo, mid, depth + 1, boxMinLat, split, boxMinLon, boxMaxLon);
+                nearest(s, mid + 1, hi, depth + 1, split, boxMaxLat, boxMinLon, boxMaxLon);
+            } else {
+                nearest(s, mid + 1, hi, depth + 1, split, boxMaxLat, boxMinLon, boxMaxLon);
+                nearest(s, lo, mid, depth + 1, boxMinLat, split, boxMinLon, boxMaxLon);
+            }
+        } else {
+            double split = graph.lon[v];
+            if(s.lon < split){
+                nearest(s, lo, mid, depth + 1, boxMinLat, boxMaxLat, boxMinLon, split);
+                nearest(s, mid + 1, hi, depth + 1, boxMinLat, boxMaxLat, split, boxMaxLon);
+            } else {
+                nearest(s, mid + 1, hi, depth + 1, boxMinLat, boxMaxLat, split, boxMaxLon);
+                nearest(s, lo, mid, depth + 1, boxMinLat, boxMaxLat, boxMinLon, split);
+            }
+        }
+    }
+
+    private static final class Search {
+        final double lat;
+        final double lon;
+        double best = Double.POSITIVE_INFINITY;
+        int bestId = -1;
+
+        Search(double lat, double lon) {
+            this.lat = lat;
+            this.lon = lon;
+        }
+    }
+}
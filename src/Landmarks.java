@@ -0,0 +1,184 @@
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Landmark distance tables for ALT: the network distance from a few
+ * landmark vertices to every vertex, as floats, with the distances of
+ * one vertex side by side. By the triangle inequality
+ * |d(L, t) - d(L, v)| <= d(v, t) for every landmark L, and behind a
+ * landmark that bound follows the roads around mountains and coastlines
+ * where the straight-line bound cannot.
+ */
+final class Landmarks {
+    static final int MAGIC = 0x4d4c3650; // "P6LM" in file byte order
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 48;
+    // covers the float rounding of both table entries, with room to spare
+    private static final double ROUNDING = 0x1p-23;
+
+    final int count;
+    final int[] vertices;
+    // distance from landmark i to vertex v at [v * count + i], infinite when unreachable
+    final float[] table;
+
+    private Landmarks(int[] vertices, float[] table) {
+        this.count = vertices.length;
+        this.vertices = vertices;
+        this.table = table;
+    }
+
+    /**
+     * Farthest selection: each landmark is the vertex of the largest
+     * component farthest in a straight line from those already chosen,
+     * starting from the vertex farthest from an arbitrary one. Picking
+     * by straight-line rather than network distance leaves the tables
+     * independent of each other, so their Dijkstras run in parallel.
+     */
+    static Landmarks build(Network net, int count) {
+        Graph g = net.graph;
+        int[] component = net.component;
+        int n = g.vertexCount;
+        int[] size = new int[n];
+        int largest = -1;
+        for(int v = 0; v < n; v++){
+            if(++size[component[v]] > (largest < 0 ? 0 : size[largest])){
+                largest = component[v];
+            }
+        }
+        int k = largest < 0 ? 0 : Math.min(count, size[largest]);
+        int[] vertices = new int[k];
+        double[] nearest = new double[n];
+        int seed = -1;
+        for(int v = 0; v < n && seed < 0; v++){
+            if(component[v] == largest){
+                seed = v;
+            }
+        }
+        for(int v = 0; v < n; v++){
+            nearest[v] = component[v] == largest
+                    ? GeoMath.distance(g.lat[v], g.lon[v], g.lat[seed], g.lon[seed]) : -1;
+        }
+        for(int i = 0; i < k; i++){
+            int far = seed;
+            for(int v = 0; v < n; v++){
+                if(nearest[v] > nearest[far]){
+                    far = v;
+                }
+            }
+            vertices[i] = far;
+            for(int v = 0; v < n; v++){
+                if(nearest[v] > 0){
+                    nearest[v] = Math.min(nearest[v], GeoMath.distance(g.lat[v], g.lon[v], g.lat[far], g.lon[far]));
+                }
+            }
+            nearest[far] = 0;
+        }
+
+        float[] table = new float[n * k];
+        IntStream.range(0, k).parallel().forEach(i -> {
+            SearchWorkspace w = SearchWorkspace.get(n);
+            PathSearch.search(net, g, GraphProcessor.Algorithm.DIJKSTRA, new int[] {vertices[i]},
+                    new double[] {0.0}, new int[0], new double[0], w);
+            for(int v = 0; v < n; v++){
+                table[v * k + i] = (float) w.dist(v);
+            }
+        });
+        return new Landmarks(vertices, table);
+    }
+
+    /** Lower bound on the network distance between v and t, or 0 if no landmark reaches them. */
+    double bound(int v, int t) {
+        double best = 0;
+        int from = v * count;
+        int to = t * count;
+        for(int i = 0; i < count; i++){
+            double a = table[from + i];
+            double b = table[to + i];
+            if(a + b < Double.POSITIVE_INFINITY){
+                best = Math.max(best, Math.abs(a - b) - (a + b) * ROUNDING);
+            }
+        }
+        return best;
+    }
+
+    /** Writes the tables for g via a temporary file and an atomic rename, like GraphSnapshot. */
+    void write(Graph g, Path file) throws IOException {
+        long payload = 4L * count + 4L * table.length;
+        if(HEADER_BYTES + payload > Integer.MAX_VALUE){
+            throw new IOException("Landmark tables too large to write");
+        }
+        ByteBuffer out = ByteBuffer.allocate((int) (HEADER_BYTES + payload)).order(ByteOrder.LITTLE_ENDIAN);
+        out.position(HEADER_BYTES);
+        out.asIntBuffer().put(vertices);
+        out.position(out.position() + 4 * count);
+        out.asFloatBuffer().put(table);
+
+        CRC32 crc = new CRC32();
+        crc.update(out.position(HEADER_BYTES));
+        out.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, g.vertexCount).putInt(12, g.neighbors.length)
+                .putInt(16, count).putLong(24, g.checksum()).putLong(32, payload).putLong(40, crc.getValue());
+        out.position(0);
+
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)){
+                while(out.hasRemaining()){
+                    channel.write(out);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads tables written by write through a memory map.
+     * @return the landmarks, or null if built for a graph other than g
+     * @throws IOException if the file is truncated, corrupt or of
+     * another version
+     */
+    static Landmarks read(FileChannel channel, Graph g) throws IOException {
+        long size = channel.size();
+        if(size < HEADER_BYTES || size > Integer.MAX_VALUE){
+            throw new IOException("Not a landmark file");
+        }
+        ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        if(in.getInt(0) != MAGIC){
+            throw new IOException("Not a landmark file");
+        }
+        if(in.getInt(4) != VERSION){
+            throw new IOException("Unsupported landmark file version " + in.getInt(4));
+        }
+        int n = in.getInt(8);
+        int count = in.getInt(16);
+        if(n != g.vertexCount || in.getInt(12) != g.neighbors.length || in.getLong(24) != g.checksum()){
+            return null;
+        }
+        long payload = in.getLong(32);
+        if(count < 0 || HEADER_BYTES + payload != size || payload != 4L * count + 4L * n * count){
+            throw new IOException("Truncated landmark file");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate().position(HEADER_BYTES));
+        if(crc.getValue() != in.getLong(40)){
+            throw new IOException("Landmark file checksum mismatch");
+        }
+
+        int[] vertices = new int[count];
+        float[] table = new float[n * count];
+        in.position(HEADER_BYTES);
+        in.asIntBuffer().get(vertices);
+        in.position(in.position() + 4 * count);
+        in.asFloatBuffer().get(table);
+        return new Landmarks(vertices, table);
+    }
+}
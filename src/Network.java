@@ -0,0 +1,75 @@
+/**
+ * Everything a query reads: the graph, its spatial indexes, component
+ * labels and chain-contracted routing graph, and whichever of the
+ * landmark tables, contraction hierarchy and hub labels have been
+ * built for it, plus the route cache. All fields are final and, apart
+ * from the cache, which is thread-safe and only ever holds routes of
+ * this graph, never modified, so a Network published through a
+ * volatile field can be read by any number of threads; adding a
+ * structure makes a new Network rather than changing this one.
+ */
+final class Network {
+    static final Network EMPTY = new Network(Graph.EMPTY, null);
+
+    final Graph graph;
+    final KdTree vertexTree;
+    final VertexGrid vertexGrid;
+    final EdgeTree edgeTree;
+    final int[] component;
+    final Landmarks landmarks;
+    final ContractionHierarchy hierarchy;
+    final HubLabels hubLabels;
+    final RouteCache routeCache;
+    // null when the graph has no degree-2 vertices to contract
+    final Chains chains;
+    // fileOrder[v] is the id of the file's vertex v; null when unchanged
+    final int[] fileOrder;
+
+    Network(Graph graph, int[] fileOrder) {
+        this.graph = graph;
+        this.vertexTree = new KdTree(graph);
+        this.vertexGrid = new VertexGrid(graph);
+        this.edgeTree = new EdgeTree(graph, vertexTree);
+        this.component = graph.componentLabels();
+        this.landmarks = null;
+        this.hierarchy = null;
+        this.hubLabels = null;
+        this.routeCache = null;
+        this.chains = Chains.build(graph);
+        this.fileOrder = fileOrder;
+    }
+
+    private Network(Network base, Landmarks landmarks, ContractionHierarchy hierarchy, HubLabels hubLabels,
+            RouteCache routeCache) {
+        this.graph = base.graph;
+        this.vertexTree = base.vertexTree;
+        this.vertexGrid = base.vertexGrid;
+        this.edgeTree = base.edgeTree;
+        this.component = base.component;
+        this.landmarks = landmarks;
+        this.hierarchy = hierarchy;
+        this.hubLabels = hubLabels;
+        this.routeCache = routeCache;
+        this.chains = base.chains;
+        this.fileOrder = base.fileOrder;
+    }
+
+    /** This network with landmarks replaced, or unchanged if landmarks is null. */
+    Network withLandmarks(Landmarks landmarks) {
+        return landmarks == null ? this : new Network(this, landmarks, hierarchy, hubLabels, routeCache);
+    }
+
+    Network withHierarchy(ContractionHierarchy hierarchy) {
+        return new Network(this, landmarks, hierarchy, hubLabels, routeCache);
+    }
+
+    /** This network with hub labels replaced, or unchanged if hubLabels is null. */
+    Network withHubLabels(HubLabels hubLabels) {
+        return hubLabels == null ? this : new Network(this, landmarks, hierarchy, hubLabels, routeCache);
+    }
+
+    /** This network with routeCache, which may be null, in place of its cache. */
+    Network withRouteCache(RouteCache routeCache) {
+        return new Network(this, landmarks, hierarchy, hubLabels, routeCache);
+    }
+}
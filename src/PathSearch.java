@@ -0,0 +1,168 @@
+/**
+ * The point-to-point searches behind every routing algorithm: Dijkstra,
+ * A* and ALT in one direction, and their bidirectional forms. All labels
+ * live in the caller's SearchWorkspace.
+ */
+final class PathSearch {
+    private PathSearch() {
+    }
+
+    /**
+     * Dijkstra's algorithm from a set of sources, each starting at its own
+     * initial distance, toward a set of targets, each with a cost to finish
+     * from it. With ASTAR the queue is ordered by distance plus a lower
+     * bound on the cost left, which steers the search toward the targets;
+     * ALT also bounds it with the landmarks, when there are any. CH runs
+     * on the hierarchy when one is built, and ignores g. Labels are left in
+     * w, and the search stops as soon as no unsettled vertex can improve on
+     * the best target found, so w.dist(v) and w.parent(v) are only final
+     * along the returned target's path; w.parent(v) is the vertex before v
+     * (-1 at a source). w.reachedDistance is the whole cost, target cost
+     * included. With w.keepParents off no parents are recorded and no path
+     * is rebuilt; then only w.reachedDistance is meaningful, and the index
+     * returned need not be the target's.
+     * @return the index in targets of the cheapest target to finish from,
+     * or -1 if none is reachable
+     */
+    static int search(Network net, Graph g, GraphProcessor.Algorithm algorithm,
+            int[] sources, double[] initial, int[] targets, double[] targetCost, SearchWorkspace w) {
+        if(algorithm == GraphProcessor.Algorithm.CH && net.hierarchy != null){
+            return net.hierarchy.search(sources, initial, targets, targetCost, w);
+        }
+        if(algorithm == GraphProcessor.Algorithm.BIDIRECTIONAL
+                || algorithm == GraphProcessor.Algorithm.BIDIRECTIONAL_ASTAR
+                || algorithm == GraphProcessor.Algorithm.CH){
+            return bidirectionalSearch(g, algorithm == GraphProcessor.Algorithm.BIDIRECTIONAL_ASTAR, sources,
+                    initial, targets, targetCost, w);
+        }
+        w.reset();
+        IndexedHeap toExplore = w.queue(SearchWorkspace.FORWARD);
+        Heuristic heuristic = null;
+        if(algorithm == GraphProcessor.Algorithm.ASTAR || algorithm == GraphProcessor.Algorithm.ALT){
+            heuristic = w.toTargets.reset(g, targets, targetCost,
+                    algorithm == GraphProcessor.Algorithm.ALT ? net.landmarks : null);
+        }
+        for(int i = 0; i < sources.length; i++){
+            if(initial[i] < w.dist(sources[i])){
+                w.label(SearchWorkspace.FORWARD, sources[i], initial[i], -1);
+                toExplore.push(sources[i], initial[i] + (heuristic == null ? 0 : heuristic.estimate(sources[i])));
+            }
+        }
+
+        int reached = -1;
+        double best = Double.POSITIVE_INFINITY;
+        while(!toExplore.isEmpty() && toExplore.minKey() < best){
+            int current = toExplore.pop();
+            double d = w.dist(current);
+            for(int i = 0; i < targets.length; i++){
+                if(targets[i] == current && d + targetCost[i] < best){
+                    best = d + targetCost[i];
+                    reached = i;
+                }
+            }
+
+            for(int e = g.offsets[current]; e < g.offsets[current + 1]; e++){
+                int neighbor = g.neighbors[e];
+                double candidate = d + g.weight(e);
+                if(candidate < w.dist(neighbor)){
+                    w.label(SearchWorkspace.FORWARD, neighbor, candidate, current);
+                    toExplore.push(neighbor, candidate + (heuristic == null ? 0 : heuristic.estimate(neighbor)));
+                }
+            }
+        }
+        w.reachedDistance = best;
+        return reached;
+    }
+
+    /**
+     * Same contract as search, but grows one search forward from the
+     * sources and another backward from the targets (the adjacency is
+     * symmetric, so the backward search walks the same arcs), always
+     * expanding the side with the smaller queue key. mu is the shortest
+     * source-to-target length seen so far through a vertex labelled by
+     * both sides; once the two smallest keys add up to mu, no unsettled
+     * vertex can beat it. With astar the keys carry the averaged potential
+     * (hTargets - hSources) / 2 forward and its negation backward, which
+     * keeps both directions consistent and the same stopping test valid.
+     * The backward half of the path is then copied into the forward labels.
+     */
+    private static int bidirectionalSearch(Graph g, boolean astar, int[] sources, double[] initial,
+            int[] targets, double[] targetCost, SearchWorkspace w) {
+        final int forward = SearchWorkspace.FORWARD;
+        final int backward = SearchWorkspace.BACKWARD;
+        w.reset();
+        Heuristic toTargets = astar ? w.toTargets.reset(g, targets, targetCost, null) : null;
+        Heuristic toSources = astar ? w.toSources.reset(g, sources, initial, null) : null;
+
+        double mu = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        for(int i = 0; i < sources.length; i++){
+            if(initial[i] < w.dist(forward, sources[i])){
+                w.label(forward, sources[i], initial[i], -1);
+                w.queue(forward).push(sources[i], initial[i] + potential(toTargets, toSources, sources[i]));
+            }
+        }
+        for(int i = 0; i < targets.length; i++){
+            int t = targets[i];
+            if(targetCost[i] < w.dist(backward, t)){
+                w.label(backward, t, targetCost[i], -1);
+                w.queue(backward).push(t, targetCost[i] - potential(toTargets, toSources, t));
+                if(w.dist(forward, t) + targetCost[i] < mu){
+                    mu = w.dist(forward, t) + targetCost[i];
+                    meet = t;
+                }
+            }
+        }
+
+        IndexedHeap forwardQueue = w.queue(forward);
+        IndexedHeap backwardQueue = w.queue(backward);
+        while(!forwardQueue.isEmpty() && !backwardQueue.isEmpty()
+                && forwardQueue.minKey() + backwardQueue.minKey() < mu){
+            int side = forwardQueue.minKey() <= backwardQueue.minKey() ? forward : backward;
+            int other = 1 - side;
+            double sign = side == forward ? 1 : -1;
+            IndexedHeap queue = w.queue(side);
+            int current = queue.pop();
+            double d = w.dist(side, current);
+            for(int e = g.offsets[current]; e < g.offsets[current + 1]; e++){
+                int neighbor = g.neighbors[e];
+                double candidate = d + g.weight(e);
+                if(candidate < w.dist(side, neighbor)){
+                    w.label(side, neighbor, candidate, current);
+                    queue.push(neighbor, candidate + sign * potential(toTargets, toSources, neighbor));
+                    if(candidate + w.dist(other, neighbor) < mu){
+                        mu = candidate + w.dist(other, neighbor);
+                        meet = neighbor;
+                    }
+                }
+            }
+        }
+        if(meet < 0){
+            return -1;
+        }
+        w.reachedDistance = mu;
+        if(!w.keepParents){
+            return 0;
+        }
+
+        // extend the forward tree along the backward path from meet to its target
+        int last = meet;
+        double toMeet = w.dist(forward, meet) + w.dist(backward, meet);
+        for(int v = w.parent(backward, meet); v != -1; v = w.parent(backward, v)){
+            w.label(forward, v, toMeet - w.dist(backward, v), last);
+            last = v;
+        }
+        int reached = -1;
+        for(int i = 0; i < targets.length; i++){
+            if(targets[i] == last && (reached < 0 || targetCost[i] < targetCost[reached])){
+                reached = i;
+            }
+        }
+        return reached;
+    }
+
+    /** The forward key offset of v for bidirectional A*, or 0 without a heuristic. */
+    private static double potential(Heuristic toTargets, Heuristic toSources, int v) {
+        return toTargets == null ? 0 : (toTargets.estimate(v) - toSources.estimate(v)) / 2;
+    }
+}
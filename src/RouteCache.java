@@ -0,0 +1,114 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded least-recently-used cache of routes between vertices. The
+ * graph is undirected, so a route is stored once under its unordered
+ * pair of end vertices, oriented from the smaller id, and served in
+ * the other direction by reversing it. Entries are spread over up to
+ * SEGMENTS independently locked access-ordered maps by a hash of the
+ * pair, so concurrent queries rarely wait on one another. Each segment
+ * evicts its own least recently used route, which approximates global
+ * LRU closely as long as every segment holds several routes, so small
+ * caches get fewer segments, each at least SEGMENT_MINIMUM routes.
+ * The segment capacities add up to exactly the capacity asked for.
+ */
+final class RouteCache {
+    private static final int SEGMENTS = 16;
+    private static final int SEGMENT_MINIMUM = 8;
+
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    RouteCache(int capacity) {
+        segments = new Segment[Math.max(1, Math.min(SEGMENTS, capacity / SEGMENT_MINIMUM))];
+        for(int i = 0; i < segments.length; i++){
+            int extra = i < capacity % segments.length ? 1 : 0;
+            segments[i] = new Segment(capacity / segments.length + extra);
+        }
+    }
+
+    /** The cached route from source to target, or null, counting a hit or miss. */
+    GraphProcessor.RouteResult get(Graph g, int source, int target) {
+        long key = key(source, target);
+        Segment segment = segmentOf(key);
+        Entry entry;
+        synchronized(segment){
+            entry = segment.routes.get(key);
+        }
+        if(entry == null){
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return new GraphProcessor.RouteResult(g, source > target ? reversed(entry.path) : entry.path, entry.distance);
+    }
+
+    /** Caches path, which the caller must not modify afterwards. */
+    void put(int[] path, double distance) {
+        if(path[0] > path[path.length - 1]){
+            path = reversed(path);
+        }
+        long key = key(path[0], path[path.length - 1]);
+        Segment segment = segmentOf(key);
+        synchronized(segment){
+            segment.routes.put(key, new Entry(path, distance));
+            if(segment.routes.size() > segment.capacity){
+                Iterator<Long> eldest = segment.routes.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    GraphProcessor.RouteCacheStats stats() {
+        int size = 0;
+        for(Segment segment : segments){
+            synchronized(segment){
+                size += segment.routes.size();
+            }
+        }
+        return new GraphProcessor.RouteCacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    private static long key(int a, int b) {
+        return (long) Math.min(a, b) << 32 | Math.max(a, b);
+    }
+
+    private Segment segmentOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) ((h >>> 32) % segments.length)];
+    }
+
+    private static int[] reversed(int[] path) {
+        int[] reversed = new int[path.length];
+        for(int i = 0; i < path.length; i++){
+            reversed[i] = path[path.length - 1 - i];
+        }
+        return reversed;
+    }
+
+    private static final class Entry {
+        final int[] path;
+        final double distance;
+
+        Entry(int[] path, double distance) {
+            this.path = path;
+            this.distance = distance;
+        }
+    }
+
+    /** One lock's share of the cache: routes in access order, least recently used first. */
+    private static final class Segment {
+        final int capacity;
+        final LinkedHashMap<Long, Entry> routes = new LinkedHashMap<>(16, 0.75f, true);
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.Arrays;
+
+/**
+ * Search state reused from query to query on the same thread, so that
+ * in steady state a route allocates nothing but its result. Every
+ * label records the generation it was written in and reads as
+ * unlabelled once the generation moves on, so starting a search is
+ * O(1) however large the graph. Unidirectional searches use the
+ * FORWARD side only.
+ */
+final class SearchWorkspace {
+    static final int FORWARD = 0;
+    static final int BACKWARD = 1;
+    private static final ThreadLocal<SearchWorkspace> POOL = new ThreadLocal<>();
+
+    final int capacity;
+    private final double[][] dist = new double[2][];
+    private final int[][] parent = new int[2][];
+    private final IndexedHeap[] queues = new IndexedHeap[2];
+    private final int[] labelled;
+    private int generation;
+    // vertices labelled in this generation, in the order they were first labelled
+    final int[] touched;
+    int touchedCount;
+    final Heuristic toTargets = new Heuristic();
+    final Heuristic toSources = new Heuristic();
+    // single source, target and cost for point-to-point queries
+    final int[] source = new int[1];
+    final int[] target = new int[1];
+    final double[] zero = {0.0};
+    // false for distance-only searches, which leave the parent arrays untouched
+    boolean keepParents = true;
+    // cost of the best target the last search reached, its target cost included
+    double reachedDistance;
+    // chain ends a query endpoint starts or finishes from, with the cost along the chain
+    final int[] sourceEnds = new int[2];
+    final double[] sourceCost = new double[2];
+    final int[] targetEnds = new int[2];
+    final double[] targetCost = new double[2];
+    // scratch for unpacking hierarchy paths: the path with its distances, and a stack
+    int[] path = new int[64];
+    double[] pathDist = new double[64];
+    int pathLength;
+    int[] stack = new int[64];
+    int stackSize;
+
+    SearchWorkspace(int capacity) {
+        this.capacity = capacity;
+        for(int side = 0; side < 2; side++){
+            dist[side] = new double[capacity];
+            parent[side] = new int[capacity];
+            queues[side] = new IndexedHeap(capacity);
+        }
+        labelled = new int[capacity];
+        touched = new int[capacity];
+    }
+
+    /** This thread's workspace, replaced by a larger one if it is smaller than n vertices. */
+    static SearchWorkspace get(int n) {
+        SearchWorkspace w = POOL.get();
+        if(w == null || w.capacity < n){
+            w = new SearchWorkspace(n);
+            POOL.set(w);
+        }
+        return w;
+    }
+
+    /** How many searches have started on this workspace, modulo wraparound. */
+    int generation() {
+        return generation;
+    }
+
+    /** Forgets every label and empties both queues. */
+    void reset() {
+        if(++generation == Integer.MAX_VALUE){
+            Arrays.fill(labelled, 0);
+            generation = 1;
+        }
+        touchedCount = 0;
+        queues[FORWARD].clear();
+        queues[BACKWARD].clear();
+    }
+
+    double dist(int v) {
+        return dist(FORWARD, v);
+    }
+
+    int parent(int v) {
+        return parent(FORWARD, v);
+    }
+
+    /** Distance of v on the given side, infinite if it has no label this generation. */
+    double dist(int side, int v) {
+        return labelled[v] == generation ? dist[side][v] : Double.POSITIVE_INFINITY;
+    }
+
+    int parent(int side, int v) {
+        return labelled[v] == generation ? parent[side][v] : -1;
+    }
+
+    IndexedHeap queue(int side) {
+        return queues[side];
+    }
+
+    void label(int side, int v, double d, int from) {
+        if(labelled[v] != generation){
+            labelled[v] = generation;
+            dist[FORWARD][v] = Double.POSITIVE_INFINITY;
+            dist[BACKWARD][v] = Double.POSITIVE_INFINITY;
+            if(keepParents){
+                parent[FORWARD][v] = -1;
+                parent[BACKWARD][v] = -1;
+            }
+            touched[touchedCount++] = v;
+        }
+        dist[side][v] = d;
+        if(keepParents){
+            parent[side][v] = from;
+        }
+    }
+
+    /** Number of vertices on the forward path ending at last. */
+    int chainLength(int last) {
+        int length = 0;
+        for(int v = last; v != -1; v = parent(v)){
+            length++;
+        }
+        return length;
+    }
+
+    void push(int v) {
+        if(stackSize == stack.length){
+            stack = Arrays.copyOf(stack, 2 * stackSize);
+        }
+        stack[stackSize++] = v;
+    }
+
+    void append(int v, double d) {
+        if(pathLength == path.length){
+            path = Arrays.copyOf(path, 2 * pathLength);
+            pathDist = Arrays.copyOf(pathDist, 2 * pathLength);
+        }
+        path[pathLength] = v;
+        pathDist[pathLength++] = d;
+    }
+}
@@ -5,14 +5,20 @@ import org.junit.jupiter.api.*;
 
 import java.util.Arrays;
 import java.io.File;
+import java.nio.file.Files;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.HashMap;
 import java.security.InvalidAlgorithmParameterException;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -129,6 +135,846 @@ public class TestSimpleGraphProcessor {
 		    "Your algorithm mistakenly claims two points representing G and H's nearest points, respectively, are not connected. This test tests if .connected() is correct, even if .nearestPoint() is faulty"); 
 	}
  
+    /**
+     * Tests the k-nearest and radius queries against the layout of simple.graph,
+     * where E (1, 0) has D, F at ~69.16 miles and B, G at ~69.17 miles
+     */
+	@Test
+	public void testKNearestAndRadius() {
+		Point e = new Point(1, 0);
+		List<Point> three = simpleDriver.kNearest(e, 3);
+		assertEquals(3, three.size());
+		assertEquals(e, three.get(0));
+		assertEquals(new HashSet<>(Arrays.asList(new Point(1, -1), new Point(1, 1))), new HashSet<>(three.subList(1, 3)));
+		assertEquals(10, simpleDriver.kNearest(new Point(40, 40), 25).size(), "k larger than the graph should return every point");
+		assertTrue(simpleDriver.kNearest(e, 0).isEmpty());
+
+		List<Point> near = simpleDriver.withinRadius(e, 70);
+		assertEquals(new HashSet<>(Arrays.asList(e, new Point(1, -1), new Point(1, 1), new Point(2, 0), new Point(0, 0))), new HashSet<>(near));
+		for (int i = 1; i < near.size(); i++) {
+			assertTrue(e.distance(near.get(i - 1)) <= e.distance(near.get(i)), "Radius results should be nearest first");
+		}
+		assertEquals(Arrays.asList(e), simpleDriver.withinRadius(new Point(1.001, 0), 1));
+		assertTrue(simpleDriver.withinRadius(new Point(30, 30), 100).isEmpty());
+	}
+
+    /**
+     * Tests snapping to the nearest edge and routing between points in the middle of edges
+     * @throws InvalidAlgorithmParameterException
+     */
+	@Test
+	public void testNearestEdge() throws InvalidAlgorithmParameterException {
+		// halfway between A and B, and halfway between E and F
+		GraphProcessor.EdgeSnap ab = simpleDriver.nearestEdge(new Point(2.1, -0.5));
+		GraphProcessor.EdgeSnap ef = simpleDriver.nearestEdge(new Point(1, 0.5));
+		assertEquals(new HashSet<>(Arrays.asList(new Point(2, -1), new Point(2, 0))), new HashSet<>(Arrays.asList(ab.getFrom(), ab.getTo())));
+		assertEquals(0.5, ab.getFraction(), 1e-9);
+		assertEquals(6.92, ab.getDistance(), 0.03);
+		assertEquals(0, ef.getDistance(), 1e-9);
+
+		// leave A-B toward B, then B, E, and along E-F
+		List<Point> route = simpleDriver.route(ab, ef);
+		assertEquals(Arrays.asList(ab.getPoint(), new Point(2, 0), new Point(1, 0), ef.getPoint()), route);
+		assertTrue(inRange(simpleDriver.routeDistance(route), 138.33));
+
+		// both on A-B: just run along the edge
+		GraphProcessor.EdgeSnap nearA = simpleDriver.nearestEdge(new Point(2, -0.8));
+		assertEquals(Arrays.asList(nearA.getPoint(), ab.getPoint()), simpleDriver.route(nearA, ab));
+
+		// G-H is in the other component
+		GraphProcessor.EdgeSnap gh = simpleDriver.nearestEdge(new Point(-0.5, -0.5));
+		assertThrows(InvalidAlgorithmParameterException.class, ()->simpleDriver.route(ab, gh));
+	}
+
+    /**
+     * Tests that ALT with landmarks finds routes as short as Dijkstra's, and
+     * that landmark tables survive writing and are picked up next to the graph
+     */
+	@Test
+	public void testLandmarks() throws Exception {
+		File graph = copyToTempDirectory("data/durham.graph", "landmarks");
+		File dir = graph.getParentFile();
+		try {
+			GraphProcessor built = new GraphProcessor();
+			built.initialize(graph.getPath());
+			built.buildLandmarks(8);
+			built.writeLandmarks(graph.getPath() + ".landmarks");
+			assertThrows(IOException.class, () -> simpleDriver.loadLandmarks(graph.getPath() + ".landmarks"));
+
+			GraphProcessor loaded = new GraphProcessor();
+			loaded.initialize(graph.getPath());
+			assertEquals(8, loaded.landmarkCount());
+			List<Point> points = loaded.kNearest(new Point(0, 0), Integer.MAX_VALUE);
+			Random random = new Random(12);
+			for (int i = 0; i < 200; i++) {
+				Point start = points.get(random.nextInt(points.size()));
+				Point end = points.get(random.nextInt(points.size()));
+				if (start.equals(end) || !loaded.connected(start, end)) {
+					continue;
+				}
+				double expected = loaded.routeDistance(loaded.route(start, end, GraphProcessor.Algorithm.DIJKSTRA));
+				assertEquals(expected, built.routeDistance(built.route(start, end, GraphProcessor.Algorithm.ALT)), 1e-9);
+				assertEquals(expected, loaded.routeDistance(loaded.route(start, end, GraphProcessor.Algorithm.ALT)), 1e-9);
+			}
+		} finally {
+			deleteRecursively(dir);
+		}
+	}
+
+    /**
+     * Tests that contraction hierarchy routes, unpacked back to the original
+     * edges, are exactly as long as Dijkstra's, also between points on edges
+     */
+	@Test
+	public void testContractionHierarchy() throws Exception {
+		GraphProcessor driver = new GraphProcessor();
+		driver.initialize(new FileInputStream("data/durham.graph"));
+		driver.buildContractionHierarchy();
+		driver.setAlgorithm(GraphProcessor.Algorithm.CH);
+		List<Point> points = driver.kNearest(new Point(0, 0), Integer.MAX_VALUE);
+		for (Point start : points) {
+			for (Point end : points) {
+				if (start.equals(end) || !driver.connected(start, end)) {
+					continue;
+				}
+				List<Point> expected = driver.route(start, end, GraphProcessor.Algorithm.DIJKSTRA);
+				List<Point> route = driver.route(start, end, GraphProcessor.Algorithm.CH);
+				assertEquals(start, route.get(0));
+				assertEquals(end, route.get(route.size() - 1));
+				assertEquals(driver.routeDistance(expected), driver.routeDistance(route), 1e-9);
+				assertEquals(driver.routeDistance(expected), driver.networkDistance(start, end), 1e-9);
+			}
+		}
+
+		Random random = new Random(13);
+		for (int i = 0; i < 100; i++) {
+			GraphProcessor.EdgeSnap start = driver.nearestEdge(new Point(35.9 + random.nextDouble() * 0.1, -79 + random.nextDouble() * 0.2));
+			GraphProcessor.EdgeSnap end = driver.nearestEdge(new Point(35.9 + random.nextDouble() * 0.1, -79 + random.nextDouble() * 0.2));
+			driver.setAlgorithm(GraphProcessor.Algorithm.DIJKSTRA);
+			List<Point> expected;
+			try {
+				expected = driver.route(start, end);
+			} catch (InvalidAlgorithmParameterException e) {
+				continue;
+			}
+			driver.setAlgorithm(GraphProcessor.Algorithm.CH);
+			assertEquals(driver.routeDistance(expected), driver.routeDistance(driver.route(start, end)), 1e-9);
+		}
+	}
+
+    /**
+     * Tests that networkDistance answered from hub labels, freshly built or
+     * mapped back from next to the graph, equals the length of the route
+     */
+	@Test
+	public void testHubLabels() throws Exception {
+		File graph = copyToTempDirectory("data/durham.graph", "hubs");
+		File dir = graph.getParentFile();
+		try {
+			GraphProcessor built = new GraphProcessor();
+			built.initialize(graph.getPath());
+			built.buildHubLabels();
+			built.writeHubLabels(graph.getPath() + ".hubs");
+			assertThrows(IOException.class, () -> simpleDriver.loadHubLabels(graph.getPath() + ".hubs"));
+
+			GraphProcessor mapped = new GraphProcessor();
+			mapped.initialize(graph.getPath());
+			List<Point> points = mapped.kNearest(new Point(0, 0), Integer.MAX_VALUE);
+			for (Point start : points) {
+				for (Point end : points) {
+					if (start.equals(end) || !mapped.connected(start, end)) {
+						assertThrows(InvalidAlgorithmParameterException.class, ()->mapped.networkDistance(start, end));
+						continue;
+					}
+					double expected = mapped.routeDistance(mapped.route(start, end));
+					assertEquals(expected, built.networkDistance(start, end), 1e-9);
+					assertEquals(expected, mapped.networkDistance(start, end), 1e-9);
+				}
+			}
+		} finally {
+			deleteRecursively(dir);
+		}
+	}
+
+    /**
+     * Tests that distanceMatrix agrees with route, with and without a
+     * contraction hierarchy, including points that are equal or not connected
+     */
+	@Test
+	public void testDistanceMatrix() throws Exception {
+		for (String file : new String[] {simpleGraphFile, "data/durham.graph"}) {
+			GraphProcessor driver = new GraphProcessor();
+			driver.initialize(new FileInputStream(file));
+			List<Point> points = driver.kNearest(new Point(0, 0), Integer.MAX_VALUE);
+			List<Point> targets = points.subList(0, points.size() / 2);
+			double[][] searched = driver.distanceMatrix(points, targets);
+			driver.buildContractionHierarchy();
+			double[][] bucketed = driver.distanceMatrix(points, targets);
+			for (int i = 0; i < points.size(); i++) {
+				for (int j = 0; j < targets.size(); j++) {
+					double expected;
+					if (points.get(i).equals(targets.get(j))) {
+						expected = 0;
+					} else if (!driver.connected(points.get(i), targets.get(j))) {
+						expected = Double.POSITIVE_INFINITY;
+					} else {
+						expected = driver.routeDistance(driver.route(points.get(i), targets.get(j)));
+					}
+					assertEquals(expected, searched[i][j], 1e-9);
+					assertEquals(expected, bucketed[i][j], 1e-9);
+				}
+			}
+			assertThrows(InvalidAlgorithmParameterException.class, ()->driver.distanceMatrix(points, Arrays.asList(new Point(90, 0))));
+		}
+	}
+
+    /**
+     * Tests that routeResult carries the route's vertices and its length,
+     * and that its point view matches route
+     */
+	@Test
+	public void testRouteResult() throws InvalidAlgorithmParameterException {
+		GraphProcessor.RouteResult result = simpleDriver.routeResult(new Point(2, -1), new Point(1, 1));
+		List<Point> route = simpleDriver.route(new Point(2, -1), new Point(1, 1));
+		assertEquals(route.size(), result.getVertexCount());
+		assertEquals(simpleDriver.routeDistance(route), result.getDistance(), 1e-9);
+		assertEquals(route, result.getPoints());
+		assertTrue(result.getPoints() instanceof RandomAccess);
+		assertSame(result.getPoints().get(1), result.getPoints().get(1));
+		assertThrows(UnsupportedOperationException.class, ()->result.getPoints().add(new Point(0, 0)));
+		assertThrows(InvalidAlgorithmParameterException.class, ()->simpleDriver.routeResult(new Point(2, -1), new Point(-1, -1)));
+	}
+
+    /**
+     * Tests that route calls on one thread share its search workspace,
+     * starting each search by advancing the generation instead of
+     * allocating, and that a larger graph replaces it
+     */
+	@Test
+	public void testRouteReusesWorkspace() throws Exception {
+		GraphProcessor driver = new GraphProcessor();
+		driver.initialize(new FileInputStream("data/durham.graph"));
+		Point start = new Point(35.994501, -78.885918);
+		Point end = new Point(36.037856, -78.978653);
+		driver.route(start, end);
+		SearchWorkspace workspace = SearchWorkspace.get(0);
+		for (GraphProcessor.Algorithm algorithm : GraphProcessor.Algorithm.values()) {
+			int generation = workspace.generation();
+			driver.route(start, end, algorithm);
+			assertSame(workspace, SearchWorkspace.get(0), algorithm.toString());
+			assertTrue(workspace.generation() > generation, algorithm + " did not start a new search");
+		}
+
+		SearchWorkspace larger = SearchWorkspace.get(workspace.capacity + 1);
+		assertNotSame(workspace, larger);
+		assertSame(larger, SearchWorkspace.get(0));
+	}
+
+    /**
+     * Tests that thousands of routes, nearest points and connectivity checks
+     * run from several threads at once, while another thread keeps
+     * re-initializing the graph, match the single-threaded answers
+     */
+	@Test
+	public void testConcurrentQueries() throws Exception {
+		File graph = copyToTempDirectory("data/durham.graph", "concurrent");
+		File dir = graph.getParentFile();
+		GraphProcessor driver = new GraphProcessor();
+		driver.initialize(graph.getPath());
+		driver.buildLandmarks(8);
+		// saved next to the graph, so every reload publishes them together with it
+		driver.writeLandmarks(graph.getPath() + ".landmarks");
+		driver.buildContractionHierarchy();
+		List<Point> points = driver.kNearest(new Point(0, 0), Integer.MAX_VALUE);
+		Random random = new Random(18);
+		int queries = 4000;
+		Point[] starts = new Point[queries];
+		Point[] ends = new Point[queries];
+		double[] expected = new double[queries];
+		Point[] nearest = new Point[queries];
+		for (int i = 0; i < queries; i++) {
+			starts[i] = points.get(random.nextInt(points.size()));
+			ends[i] = points.get(random.nextInt(points.size()));
+			expected[i] = driver.connected(starts[i], ends[i]) && !starts[i].equals(ends[i])
+					? driver.routeDistance(driver.route(starts[i], ends[i], GraphProcessor.Algorithm.DIJKSTRA)) : -1;
+			nearest[i] = driver.nearestPoint(new Point(starts[i].getLat() + 1e-4, starts[i].getLon() - 1e-4));
+		}
+		GraphProcessor.Algorithm[] algorithms = GraphProcessor.Algorithm.values();
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		AtomicBoolean done = new AtomicBoolean();
+		Future<?> reloads = pool.submit(() -> {
+			while (!done.get()) {
+				driver.initialize(graph.getPath());
+				driver.buildContractionHierarchy();
+			}
+			return null;
+		});
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 7; t++) {
+			int first = t;
+			futures.add(pool.submit(() -> {
+				for (int i = first; i < queries; i += 7) {
+					Point start = starts[i];
+					Point end = ends[i];
+					assertEquals(nearest[i], driver.nearestPoint(new Point(start.getLat() + 1e-4, start.getLon() - 1e-4)));
+					assertEquals(expected[i] >= 0 || start.equals(end), driver.connected(start, end));
+					GraphProcessor.Algorithm algorithm = algorithms[i % algorithms.length];
+					if (expected[i] < 0) {
+						assertThrows(InvalidAlgorithmParameterException.class, ()->driver.route(start, end, algorithm));
+						continue;
+					}
+					List<Point> route = driver.route(start, end, algorithm);
+					assertEquals(start, route.get(0));
+					assertEquals(end, route.get(route.size() - 1));
+					assertEquals(expected[i], driver.routeDistance(route), 1e-9, algorithm + " disagreed under concurrency");
+				}
+				return null;
+			}));
+		}
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			done.set(true);
+			reloads.get();
+			pool.shutdown();
+			deleteRecursively(dir);
+		}
+	}
+
+	/** Deletes a temporary directory and everything in it. */
+    /**
+     * Copies a graph file into a new temporary directory, so files written
+     * next to it stay out of data; delete its parent directory when done
+     */
+	private static File copyToTempDirectory(String graphFile, String prefix) throws IOException {
+		File dir = Files.createTempDirectory(prefix).toFile();
+		File graph = new File(dir, new File(graphFile).getName());
+		Files.copy(new File(graphFile).toPath(), graph.toPath());
+		return graph;
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+
+    /**
+     * Tests that routeAll, as a list and as a stream, returns the same
+     * routes as route in input order, and reports pairs without a route
+     * per item
+     */
+	@Test
+	public void testRouteAll() throws Exception {
+		GraphProcessor driver = new GraphProcessor();
+		driver.initialize(new FileInputStream("data/durham.graph"));
+		List<Point> points = driver.kNearest(new Point(0, 0), Integer.MAX_VALUE);
+		List<Point[]> pairs = new ArrayList<>();
+		Random random = new Random(19);
+		for (int i = 0; i < 3000; i++) {
+			pairs.add(new Point[] {points.get(random.nextInt(points.size())), points.get(random.nextInt(points.size()))});
+		}
+		pairs.add(new Point[] {points.get(0), points.get(0)});
+		pairs.add(new Point[] {points.get(0), new Point(0, 0)});
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			for (int round = 0; round < 2; round++) {
+				if (round == 1) {
+					driver.setExecutor(pool, 5);
+				}
+				List<GraphProcessor.RouteOutcome> outcomes = driver.routeAll(pairs);
+				Iterator<GraphProcessor.RouteOutcome> streamed = driver.routeAll(pairs.iterator());
+				assertEquals(pairs.size(), outcomes.size());
+				for (int i = 0; i < pairs.size(); i++) {
+					Point[] pair = pairs.get(i);
+					GraphProcessor.RouteOutcome outcome = outcomes.get(i);
+					GraphProcessor.RouteOutcome next = streamed.next();
+					assertSame(pair, outcome.getPair());
+					assertSame(pair, next.getPair());
+					if (!driver.connected(pair[0], pair[1]) || pair[0].equals(pair[1])) {
+						assertFalse(outcome.isRouted());
+						assertFalse(next.isRouted());
+						assertTrue(outcome.getFailure() instanceof InvalidAlgorithmParameterException);
+						continue;
+					}
+					List<Point> expected = driver.route(pair[0], pair[1]);
+					assertEquals(expected, outcome.getResult().getPoints());
+					assertEquals(expected, next.getResult().getPoints());
+				}
+				assertFalse(streamed.hasNext());
+			}
+		} finally {
+			pool.shutdown();
+		}
+		assertThrows(IllegalArgumentException.class, ()->driver.setExecutor(null, 0));
+	}
+
+    /**
+     * Tests that the route cache answers repeated and reversed routes with
+     * the routes a search finds, evicts past its capacity, and is emptied
+     * when the graph is loaded again
+     */
+	@Test
+	public void testRouteCache() throws Exception {
+		GraphProcessor driver = new GraphProcessor();
+		GraphProcessor uncached = new GraphProcessor();
+		driver.initialize(new FileInputStream("data/durham.graph"));
+		uncached.initialize(new FileInputStream("data/durham.graph"));
+		driver.setRouteCache(64);
+		List<Point> points = driver.kNearest(new Point(0, 0), Integer.MAX_VALUE);
+		Point start = points.get(0);
+		List<Point> ends = new ArrayList<>();
+		for (Point end : points) {
+			if (!end.equals(start) && driver.connected(start, end)) {
+				ends.add(end);
+			}
+		}
+		Point end = ends.get(ends.size() - 1);
+		List<Point> expected = uncached.route(start, end);
+		assertEquals(expected, driver.route(start, end));
+		assertEquals(expected, driver.route(start, end));
+		List<Point> reversed = new ArrayList<>(expected);
+		Collections.reverse(reversed);
+		assertEquals(reversed, driver.route(end, start));
+		GraphProcessor.RouteCacheStats stats = driver.routeCacheStats();
+		assertEquals(2, stats.getHits());
+		assertEquals(1, stats.getMisses());
+		assertEquals(0, stats.getEvictions());
+		assertEquals(1, stats.getSize());
+
+		for (Point other : ends) {
+			assertEquals(uncached.routeDistance(uncached.route(other, start)), driver.routeDistance(driver.route(other, start)), 1e-9);
+		}
+		stats = driver.routeCacheStats();
+		assertTrue(stats.getSize() <= 64);
+		assertEquals(stats.getMisses() - stats.getSize(), stats.getEvictions());
+
+		driver.initialize(new FileInputStream("data/durham.graph"));
+		assertEquals(0, driver.routeCacheStats().getSize());
+		assertEquals(0, driver.routeCacheStats().getHits());
+		assertEquals(expected, driver.route(start, end));
+		assertEquals(1, driver.routeCacheStats().getMisses());
+		driver.setRouteCache(0);
+		assertEquals(0, driver.routeCacheStats().getMisses());
+		assertThrows(IllegalArgumentException.class, ()->driver.setRouteCache(-1));
+
+		// below 16 routes the cache is one segment, so it fills exactly before evicting
+		for (int capacity : new int[] {1, 7, 15}) {
+			driver.setRouteCache(capacity);
+			int cached = 0;
+			for (int i = 0; i < points.size() && cached <= capacity; i++) {
+				for (int j = i + 1; j < points.size() && cached <= capacity; j++) {
+					if (driver.connected(points.get(i), points.get(j))) {
+						driver.route(points.get(i), points.get(j));
+						cached++;
+						stats = driver.routeCacheStats();
+						assertEquals(Math.min(cached, capacity), stats.getSize(), "capacity " + capacity);
+						assertEquals(Math.max(0, cached - capacity), stats.getEvictions(), "capacity " + capacity);
+					}
+				}
+			}
+			assertEquals(capacity + 1, cached);
+		}
+		driver.setRouteCache(31);
+		for (int i = 0; i < points.size(); i++) {
+			if (driver.connected(points.get(0), points.get(i)) && i > 0) {
+				driver.route(points.get(0), points.get(i));
+			}
+		}
+		stats = driver.routeCacheStats();
+		assertTrue(stats.getSize() <= 31);
+		assertEquals(stats.getMisses(), stats.getSize() + stats.getEvictions());
+	}
+
+    /**
+     * Tests that shortestPathTree reaches exactly the vertices within its
+     * budget, at their route distances, through parents reached before
+     * them, and that its boundary is the edge of the area
+     */
+	@Test
+	public void testShortestPathTree() throws Exception {
+		GraphProcessor driver = new GraphProcessor();
+		driver.initialize(new FileInputStream("data/durham.graph"));
+		List<Point> points = driver.kNearest(new Point(0, 0), Integer.MAX_VALUE);
+		Point source = driver.nearestPoint(new Point(35.99, -78.90));
+		for (double budget : new double[] {0, 0.5, 2, Double.POSITIVE_INFINITY}) {
+			GraphProcessor.ShortestPathTree tree = driver.shortestPathTree(source, budget);
+			Map<Point, Integer> index = new HashMap<>();
+			for (int i = 0; i < tree.size(); i++) {
+				index.put(tree.getPoint(i), i);
+				if (i > 0) {
+					assertTrue(tree.getDistances()[i - 1] <= tree.getDistances()[i]);
+				}
+			}
+			assertEquals(source, tree.getPoint(0));
+			assertEquals(-1, tree.getParentIds()[0]);
+			for (Point p : points) {
+				double expected = p.equals(source) ? 0 : driver.connected(source, p)
+						? driver.routeDistance(driver.route(source, p, GraphProcessor.Algorithm.DIJKSTRA)) : Double.POSITIVE_INFINITY;
+				Integer i = index.get(p);
+				if (expected > budget + 1e-9) {
+					assertNull(i, p + " is beyond " + budget);
+					continue;
+				}
+				if (i == null) {
+					assertEquals(budget, expected, 1e-9);
+					continue;
+				}
+				assertEquals(expected, tree.getDistances()[i], 1e-9);
+			}
+			for (int i = 1; i < tree.size(); i++) {
+				int parent = -1;
+				for (int j = 0; j < i; j++) {
+					if (tree.getVertexIds()[j] == tree.getParentIds()[i]) {
+						parent = j;
+					}
+				}
+				assertTrue(parent >= 0);
+				assertEquals(tree.getDistances()[parent] + tree.getPoint(parent).distance(tree.getPoint(i)), tree.getDistances()[i], 1e-9);
+			}
+			int[] boundary = tree.boundary();
+			if (budget == 0) {
+				assertArrayEquals(new int[] {0}, boundary);
+			} else if (budget == Double.POSITIVE_INFINITY) {
+				assertEquals(0, boundary.length);
+			} else {
+				assertTrue(boundary.length > 0);
+				for (int k = 1; k < boundary.length; k++) {
+					assertTrue(boundary[k - 1] < boundary[k]);
+				}
+			}
+		}
+		assertTrue(driver.shortestPathTree(source, -1).size() == 0);
+		assertThrows(InvalidAlgorithmParameterException.class, ()->driver.shortestPathTree(new Point(0, 0), 1));
+	}
+
+    /**
+     * Tests that facilityIndex labels every point with a nearest facility
+     * by network distance, and stays correct as facilities are added and
+     * removed
+     */
+	@Test
+	public void testFacilityIndex() throws Exception {
+		GraphProcessor driver = new GraphProcessor();
+		driver.initialize(new FileInputStream("data/durham.graph"));
+		List<Point> points = driver.kNearest(new Point(0, 0), Integer.MAX_VALUE);
+		Random random = new Random(23);
+		List<Point> facilities = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			facilities.add(points.get(random.nextInt(points.size())));
+		}
+		facilities.add(facilities.get(0));
+		GraphProcessor.FacilityIndex index = driver.facilityIndex(facilities);
+		checkFacilities(driver, index, points);
+		for (int step = 0; step < 6; step++) {
+			assertEquals(index.getFacilityCount(), index.addFacility(points.get(random.nextInt(points.size()))));
+			checkFacilities(driver, index, points);
+			int id;
+			do {
+				id = random.nextInt(index.getFacilityCount());
+			} while (index.getFacility(id) == null);
+			index.removeFacility(id);
+			assertNull(index.getFacility(id));
+			checkFacilities(driver, index, points);
+		}
+		int removed = 0;
+		while (index.getFacility(removed) != null) {
+			removed++;
+		}
+		int gone = removed;
+		assertThrows(IllegalArgumentException.class, ()->index.removeFacility(gone));
+		assertThrows(InvalidAlgorithmParameterException.class, ()->index.addFacility(new Point(0, 0)));
+		assertEquals(index.nearestFacility(points.get(0)),
+				index.nearestFacility(new Point(points.get(0).getLat() + 1e-6, points.get(0).getLon())));
+	}
+
+	/** Compares every point's nearest facility with one shortest path tree per facility. */
+	private static void checkFacilities(GraphProcessor driver, GraphProcessor.FacilityIndex index, List<Point> points)
+			throws InvalidAlgorithmParameterException {
+		Map<Point, Double> best = new HashMap<>();
+		List<Map<Point, Double>> trees = new ArrayList<>();
+		for (int id = 0; id < index.getFacilityCount(); id++) {
+			Map<Point, Double> tree = new HashMap<>();
+			trees.add(tree);
+			if (index.getFacility(id) == null) {
+				continue;
+			}
+			GraphProcessor.ShortestPathTree spt = driver.shortestPathTree(index.getFacility(id), Double.POSITIVE_INFINITY);
+			for (int i = 0; i < spt.size(); i++) {
+				tree.put(spt.getPoint(i), spt.getDistances()[i]);
+				best.merge(spt.getPoint(i), spt.getDistances()[i], Math::min);
+			}
+		}
+		for (Point p : points) {
+			int id = index.nearestFacility(p);
+			if (!best.containsKey(p)) {
+				assertEquals(-1, id);
+				assertEquals(Double.POSITIVE_INFINITY, index.facilityDistance(p));
+				continue;
+			}
+			assertEquals(best.get(p), index.facilityDistance(p), 1e-9);
+			assertEquals(best.get(p), trees.get(id).get(p), 1e-9);
+		}
+	}
+
+    /**
+     * Tests that renumbering vertices at load changes none of the answers
+     * given in Points: names, nearest points, connectivity and routes
+     */
+	@Test
+	public void testVertexOrder() throws Exception {
+		GraphProcessor reference = new GraphProcessor();
+		reference.setKeepNames(true);
+		reference.initialize(new FileInputStream("data/durham.graph"));
+		List<Point> points = reference.kNearest(new Point(0, 0), Integer.MAX_VALUE);
+		File referenceSnapshot = File.createTempFile("durham", ".snapshot");
+		referenceSnapshot.deleteOnExit();
+		reference.writeSnapshot(referenceSnapshot.getPath());
+		for (GraphProcessor.VertexOrder order : GraphProcessor.VertexOrder.values()) {
+			GraphProcessor driver = new GraphProcessor();
+			driver.setKeepNames(true);
+			driver.setVertexOrder(order);
+			driver.initialize(new FileInputStream("data/durham.graph"));
+			// snapshots are written in file order whatever the numbering
+			File snapshot = File.createTempFile("durham", ".snapshot");
+			snapshot.deleteOnExit();
+			driver.writeSnapshot(snapshot.getPath());
+			assertArrayEquals(Files.readAllBytes(referenceSnapshot.toPath()),
+					Files.readAllBytes(snapshot.toPath()), order.toString());
+			driver.buildLandmarks(4);
+			driver.buildContractionHierarchy();
+			assertEquals(points, driver.kNearest(new Point(0, 0), Integer.MAX_VALUE));
+			for (Point start : points) {
+				assertEquals(reference.vertexName(start), driver.vertexName(start));
+				Point near = new Point(start.getLat() + 1e-5, start.getLon());
+				assertEquals(reference.nearestPoint(near), driver.nearestPoint(near));
+				for (Point end : points) {
+					assertEquals(reference.connected(start, end), driver.connected(start, end));
+					if (start.equals(end) || !reference.connected(start, end)) {
+						continue;
+					}
+					double expected = reference.routeDistance(reference.route(start, end));
+					for (GraphProcessor.Algorithm algorithm : GraphProcessor.Algorithm.values()) {
+						List<Point> route = driver.route(start, end, algorithm);
+						assertEquals(start, route.get(0));
+						assertEquals(end, route.get(route.size() - 1));
+						assertEquals(expected, driver.routeDistance(route), 1e-9, order + " " + algorithm);
+					}
+				}
+			}
+		}
+	}
+
+    /**
+     * Tests that every routing algorithm finds routes as short as Dijkstra's,
+     * and the same distances without building the route, between every
+     * pair of points in simple.graph and durham.graph
+     */
+	@Test
+	public void testAlgorithmsAgree() throws Exception {
+		for (String file : new String[] {simpleGraphFile, "data/durham.graph"}) {
+			GraphProcessor driver = new GraphProcessor();
+			driver.initialize(new FileInputStream(file));
+			List<Point> points = driver.kNearest(new Point(0, 0), Integer.MAX_VALUE);
+			for (Point start : points) {
+				for (Point end : points) {
+					if (!driver.connected(start, end) || start.equals(end)) {
+						for (GraphProcessor.Algorithm algorithm : GraphProcessor.Algorithm.values()) {
+							assertThrows(InvalidAlgorithmParameterException.class, ()->driver.route(start, end, algorithm));
+							driver.setAlgorithm(algorithm);
+							assertThrows(InvalidAlgorithmParameterException.class, ()->driver.networkDistance(start, end));
+						}
+						continue;
+					}
+					double expected = driver.routeDistance(driver.route(start, end, GraphProcessor.Algorithm.DIJKSTRA));
+					for (GraphProcessor.Algorithm algorithm : GraphProcessor.Algorithm.values()) {
+						List<Point> route = driver.route(start, end, algorithm);
+						assertEquals(start, route.get(0));
+						assertEquals(end, route.get(route.size() - 1));
+						assertEquals(expected, driver.routeDistance(route), 1e-9, algorithm + " found a longer route in " + file);
+						driver.setAlgorithm(algorithm);
+						assertEquals(expected, driver.networkDistance(start, end), 1e-9, algorithm + " distance in " + file);
+					}
+				}
+			}
+		}
+	}
+
+    /**
+     * Tests that initialize accepts the optional edge name column used by usa.graph,
+     * along with Windows line endings, and builds the same graph as simple.graph
+     */
+	@Test
+	public void testNamedEdges() throws Exception {
+		File named = File.createTempFile("named", ".graph");
+		named.deleteOnExit();
+		List<String> lines = Files.readAllLines(new File(simpleGraphFile).toPath());
+		StringBuilder text = new StringBuilder(lines.get(0)).append("\r\n");
+		for (int i = 1; i < lines.size(); i++) {
+			text.append(lines.get(i));
+			if (i > 10) text.append(" I-").append(i).append("/US").append(i);
+			text.append("\r\n");
+		}
+		Files.write(named.toPath(), text.toString().getBytes());
+
+		GraphProcessor namedDriver = new GraphProcessor();
+		namedDriver.initialize(new FileInputStream(named));
+		List<Point> route = namedDriver.route(new Point(2, -1), new Point(1, 1));
+		assertEquals(simpleDriver.route(new Point(2, -1), new Point(1, 1)), route, "Named edge columns changed the parsed graph!");
+		assertFalse(namedDriver.connected(new Point(2, -1), new Point(-1, 1)));
+
+		// a sign or point without digits is not a number
+		for (String token : new String[] {"-", "+", "."}) {
+			Files.write(named.toPath(), ("2 1\nA " + token + " 0.0\nB 0.0 1.0\n0 1\n").getBytes());
+			assertThrows(IOException.class, () -> new GraphProcessor().initialize(new FileInputStream(named)), token);
+		}
+	}
+
+    /**
+     * Tests that a binary snapshot reproduces the parsed graph, and that a corrupt
+     * or stale snapshot is ignored in favor of the .graph text
+     */
+	@Test
+	public void testSnapshot() throws Exception {
+		File graph = copyToTempDirectory(simpleGraphFile, "snapshot");
+		File dir = graph.getParentFile();
+		try {
+			File snapshot = new File(graph.getPath() + ".snapshot");
+
+			GraphProcessor first = new GraphProcessor();
+			first.initialize(graph.getPath());
+			assertTrue(snapshot.isFile(), "initialize(String) should write a snapshot next to the .graph file");
+
+			GraphProcessor fromSnapshot = new GraphProcessor();
+			fromSnapshot.initialize(new FileInputStream(snapshot));
+			assertEquals(simpleDriver.route(new Point(2, -1), new Point(1, 1)), fromSnapshot.route(new Point(2, -1), new Point(1, 1)));
+			assertTrue(fromSnapshot.connected(new Point(0, 0), new Point(-1, -1)));
+			assertFalse(fromSnapshot.connected(new Point(2, 0), new Point(-1, 0)));
+			GraphProcessor named = new GraphProcessor();
+			named.setKeepNames(true);
+			assertThrows(IOException.class, () -> named.initialize(new FileInputStream(snapshot)),
+					"a snapshot without names cannot serve vertexName");
+
+			// flip a payload byte: the checksum must reject the snapshot and the text is used instead
+			byte[] bytes = Files.readAllBytes(snapshot.toPath());
+			bytes[bytes.length - 1] ^= 1;
+			Files.write(snapshot.toPath(), bytes);
+			assertThrows(IOException.class, () -> new GraphProcessor().initialize(new FileInputStream(snapshot)));
+			GraphProcessor rebuilt = new GraphProcessor();
+			rebuilt.initialize(graph.getPath());
+			assertEquals(simpleDriver.route(new Point(2, -1), new Point(1, 1)), rebuilt.route(new Point(2, -1), new Point(1, 1)));
+
+			// edit the .graph file: the old snapshot is stale and must not be used
+			Files.write(graph.toPath(), "2 1\nA 0.0 0.0\nB 0.0 1.0\n0 1\n".getBytes());
+			graph.setLastModified(graph.lastModified() + 2000);
+			GraphProcessor edited = new GraphProcessor();
+			edited.setKeepNames(true);
+			edited.initialize(graph.getPath());
+			assertEquals("B", edited.vertexName(new Point(0, 1)));
+			assertTrue(edited.connected(new Point(0, 0), new Point(0, 1)));
+			assertFalse(edited.connected(new Point(2, -1), new Point(2, 0)));
+
+			GraphProcessor reopened = new GraphProcessor();
+			reopened.initialize(new FileInputStream(snapshot));
+			assertEquals("A", reopened.vertexName(new Point(0, 0)), "Names should survive the snapshot round trip");
+		} finally {
+			deleteRecursively(dir);
+		}
+	}
+
+    /**
+     * Tests that routing over float edge weights finds the same routes as over double weights
+     */
+	@Test
+	public void testCompactWeights() throws Exception {
+		GraphProcessor compactDriver = new GraphProcessor();
+		compactDriver.setCompactWeights(true);
+		compactDriver.initialize(new FileInputStream(simpleGraphFile));
+		List<Point> route = compactDriver.route(new Point(2, -1), new Point(1, 1));
+		assertEquals(simpleDriver.route(new Point(2, -1), new Point(1, 1)), route);
+		assertTrue(inRange(compactDriver.routeDistance(route), 166.93));
+		assertThrows(InvalidAlgorithmParameterException.class, ()->compactDriver.route(new Point(1, -1), new Point(-1, 1)));
+
+		// a snapshot of the compact graph still carries the exact weights
+		File snapshot = File.createTempFile("compact", ".snapshot");
+		snapshot.deleteOnExit();
+		compactDriver.writeSnapshot(snapshot.getPath());
+		GraphProcessor exactDriver = new GraphProcessor();
+		exactDriver.initialize(new FileInputStream(snapshot));
+		assertEquals(simpleDriver.networkDistance(new Point(2, -1), new Point(1, 1)),
+				exactDriver.networkDistance(new Point(2, -1), new Point(1, 1)), 0.0);
+	}
+
+    /**
+     * Tests that A*, bidirectional A* and ALT stay exact over float weights
+     * on a lattice of degree-2 chains, whose contracted arcs sum the rounded
+     * weights and whose many near-tied routes expose any overestimate
+     */
+	@Test
+	public void testCompactWeightsOverChains() throws Exception {
+		int size = 6;
+		Random random = new Random(10);
+		List<String> vertices = new ArrayList<>();
+		List<String> edges = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				vertices.add("J " + (0.01 * i) + " " + (0.01 * j));
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				for (int d = 0; d < 2; d++) {
+					int ni = i + (d == 0 ? 1 : 0);
+					int nj = j + (d == 1 ? 1 : 0);
+					if (ni == size || nj == size) {
+						continue;
+					}
+					// split the lattice edge into a chain along its meridian or parallel
+					int prev = i * size + j;
+					int pieces = 2 + random.nextInt(6);
+					for (int k = 1; k < pieces; k++) {
+						double t = (k + random.nextDouble() - 0.5) / pieces;
+						vertices.add("C " + (0.01 * (i + t * (ni - i))) + " " + (0.01 * (j + t * (nj - j))));
+						edges.add(prev + " " + (vertices.size() - 1));
+						prev = vertices.size() - 1;
+					}
+					edges.add(prev + " " + (ni * size + nj));
+				}
+			}
+		}
+		File file = File.createTempFile("lattice", ".graph");
+		file.deleteOnExit();
+		StringBuilder text = new StringBuilder(vertices.size() + " " + edges.size() + "\n");
+		vertices.forEach(v -> text.append(v).append('\n'));
+		edges.forEach(e -> text.append(e).append('\n'));
+		Files.write(file.toPath(), text.toString().getBytes());
+
+		GraphProcessor driver = new GraphProcessor();
+		driver.setCompactWeights(true);
+		driver.initialize(new FileInputStream(file));
+		driver.buildLandmarks(4);
+		List<Point> points = driver.kNearest(new Point(0, 0), Integer.MAX_VALUE);
+		for (int q = 0; q < 2000; q++) {
+			Point start = points.get(random.nextInt(points.size()));
+			Point end = points.get(random.nextInt(points.size()));
+			if (start.equals(end)) {
+				continue;
+			}
+			double expected = driver.routeResult(start, end, GraphProcessor.Algorithm.DIJKSTRA).getDistance();
+			for (GraphProcessor.Algorithm algorithm : new GraphProcessor.Algorithm[] {GraphProcessor.Algorithm.ASTAR,
+					GraphProcessor.Algorithm.BIDIRECTIONAL_ASTAR, GraphProcessor.Algorithm.ALT}) {
+				assertEquals(expected, driver.routeResult(start, end, algorithm).getDistance(), 0.0,
+						algorithm + " from " + start + " to " + end);
+			}
+		}
+	}
+
     // helper method to check if a point's distance to input is within 3% of the true nearest point's distance to input
 	private static boolean inRange(double resPathDist, double truePathDist) {
 		return (resPathDist > 0.97 * truePathDist && resPathDist < 1.03 * truePathDist);
@@ -0,0 +1,285 @@
+import java.util.Arrays;
+
+/**
+ * Uniform latitude-longitude grid over the vertices, sized for a few
+ * vertices per cell. Cell c = row * cols + col holds the vertex ids
+ * cellItems[cellStart[c], cellStart[c + 1]). Candidates are scored
+ * straight from the coordinate arrays and kept in primitive arrays, so
+ * the only allocations per query are the result buffers.
+ */
+final class VertexGrid {
+    private static final int VERTICES_PER_CELL = 4;
+    // widens cell boxes so rounding in the row/column arithmetic never excludes a vertex
+    private static final double EDGE_SLACK = 1e-9;
+
+    final Graph graph;
+    private final int rows;
+    private final int cols;
+    private final double minLat;
+    private final double minLon;
+    private final double cellLat;
+    private final double cellLon;
+    private final int[] cellStart;
+    private final int[] cellItems;
+
+    VertexGrid(Graph graph) {
+        this.graph = graph;
+        int n = graph.vertexCount;
+        double lowLat = Double.POSITIVE_INFINITY;
+        double highLat = Double.NEGATIVE_INFINITY;
+        double lowLon = Double.POSITIVE_INFINITY;
+        double highLon = Double.NEGATIVE_INFINITY;
+        for(int v = 0; v < n; v++){
+            lowLat = Math.min(lowLat, graph.lat[v]);
+            highLat = Math.max(highLat, graph.lat[v]);
+            lowLon = Math.min(lowLon, graph.lon[v]);
+            highLon = Math.max(highLon, graph.lon[v]);
+        }
+        if(n == 0){
+            lowLat = highLat = lowLon = highLon = 0;
+        }
+        double latSpan = Math.max(highLat - lowLat, 1e-6);
+        double lonSpan = Math.max(highLon - lowLon, 1e-6);
+        // aim for roughly square cells on the ground
+        double lonScale = Math.max(Math.cos(Math.toRadians((lowLat + highLat) / 2)), 0.01);
+        double cells = Math.max(1.0, (double) n / VERTICES_PER_CELL);
+        double side = Math.sqrt(latSpan * lonSpan * lonScale / cells);
+        rows = (int) Math.max(1, Math.min(4096, Math.ceil(latSpan / side)));
+        cols = (int) Math.max(1, Math.min(4096, Math.ceil(lonSpan * lonScale / side)));
+        minLat = lowLat;
+        minLon = lowLon;
+        cellLat = latSpan / rows;
+        cellLon = lonSpan / cols;
+
+        cellStart = new int[rows * cols + 1];
+        int[] cellOf = new int[n];
+        for(int v = 0; v < n; v++){
+            cellOf[v] = row(graph.lat[v]) * cols + col(graph.lon[v]);
+            cellStart[cellOf[v] + 1]++;
+        }
+        for(int c = 0; c < rows * cols; c++){
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] fill = Arrays.copyOf(cellStart, rows * cols);
+        cellItems = new int[n];
+        for(int v = 0; v < n; v++){
+            cellItems[fill[cellOf[v]]++] = v;
+        }
+    }
+
+    private int row(double lat) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((lat - minLat) / cellLat)));
+    }
+
+    private int col(double lon) {
+        return Math.max(0, Math.min(cols - 1, (int) Math.floor((lon - minLon) / cellLon)));
+    }
+
+    /** Lower bound on the distance from (lat, lon) to any vertex in rows [r0, r1] and columns [c0, c1]. */
+    private double lowerBound(double lat, double lon, int r0, int r1, int c0, int c1) {
+        return GeoMath.boxLowerBound(lat, lon,
+                minLat + r0 * cellLat - EDGE_SLACK, minLat + (r1 + 1) * cellLat + EDGE_SLACK,
+                minLon + c0 * cellLon - EDGE_SLACK, minLon + (c1 + 1) * cellLon + EDGE_SLACK);
+    }
+
+    /**
+     * Visits cells in square rings around the query's cell, keeping the
+     * k best vertices in a max-heap. Stops once nothing outside the
+     * rings searched so far can beat the current k-th best.
+     * @return ids of the k nearest vertices, nearest first
+     */
+    int[] kNearest(double lat, double lon, int k) {
+        KBest best = new KBest(Math.max(0, Math.min(k, graph.vertexCount)));
+        if(best.capacity() == 0){
+            return best.ids;
+        }
+
+        int centerRow = row(lat);
+        int centerCol = col(lon);
+        int maxRing = Math.max(Math.max(centerRow, rows - 1 - centerRow), Math.max(centerCol, cols - 1 - centerCol));
+        for(int ring = 0; ring <= maxRing; ring++){
+            int r0 = Math.max(0, centerRow - ring);
+            int r1 = Math.min(rows - 1, centerRow + ring);
+            int c0 = Math.max(0, centerCol - ring);
+            int c1 = Math.min(cols - 1, centerCol + ring);
+            for(int r = r0; r <= r1; r++){
+                if(r == centerRow - ring || r == centerRow + ring){
+                    for(int c = c0; c <= c1; c++){
+                        scan(best, lat, lon, r, c);
+                    }
+                } else {
+                    if(centerCol - ring >= 0){
+                        scan(best, lat, lon, r, centerCol - ring);
+                    }
+                    if(ring > 0 && centerCol + ring < cols){
+                        scan(best, lat, lon, r, centerCol + ring);
+                    }
+                }
+            }
+            if(best.full() && outsideLowerBound(lat, lon, r0, r1, c0, c1) >= best.worst()){
+                break;
+            }
+        }
+        return best.sortedIds();
+    }
+
+    private void scan(KBest best, double lat, double lon, int r, int c) {
+        if(best.full() && lowerBound(lat, lon, r, r, c, c) >= best.worst()){
+            return;
+        }
+        int cell = r * cols + c;
+        for(int i = cellStart[cell]; i < cellStart[cell + 1]; i++){
+            int v = cellItems[i];
+            best.offer(v, GeoMath.distance(lat, lon, graph.lat[v], graph.lon[v]));
+        }
+    }
+
+    /** Lower bound on the distance to any vertex outside rows [r0, r1] x columns [c0, c1]. */
+    private double outsideLowerBound(double lat, double lon, int r0, int r1, int c0, int c1) {
+        double bound = Double.POSITIVE_INFINITY;
+        if(r0 > 0){
+            bound = Math.min(bound, lowerBound(lat, lon, 0, r0 - 1, 0, cols - 1));
+        }
+        if(r1 < rows - 1){
+            bound = Math.min(bound, lowerBound(lat, lon, r1 + 1, rows - 1, 0, cols - 1));
+        }
+        if(c0 > 0){
+            bound = Math.min(bound, lowerBound(lat, lon, 0, rows - 1, 0, c0 - 1));
+        }
+        if(c1 < cols - 1){
+            bound = Math.min(bound, lowerBound(lat, lon, 0, rows - 1, c1 + 1, cols - 1));
+        }
+        return bound;
+    }
+
+    /**
+     * Scans the cells whose box can hold a vertex within the radius.
+     * @return ids of the vertices within miles of (lat, lon), nearest first
+     */
+    int[] withinRadius(double lat, double lon, double miles) {
+        int[] ids = new int[16];
+        double[] dists = new double[16];
+        int size = 0;
+        if(graph.vertexCount == 0 || !(miles >= 0)){
+            return new int[0];
+        }
+
+        double latReach = Math.toDegrees(miles / GeoMath.EARTH_RADIUS);
+        int r0 = row(lat - latReach);
+        int r1 = row(lat + latReach);
+        // the mean latitude of any hit lies within latReach / 2 of lat
+        double cos = Math.min(Math.abs(Math.cos(Math.toRadians(lat - latReach / 2))),
+                Math.abs(Math.cos(Math.toRadians(lat + latReach / 2))));
+        int c0 = 0;
+        int c1 = cols - 1;
+        if(latReach < 90 && Math.abs(lat) + latReach / 2 < 90){
+            double lonReach = latReach / cos;
+            c0 = col(lon - lonReach);
+            c1 = col(lon + lonReach);
+        }
+        for(int r = r0; r <= r1; r++){
+            for(int c = c0; c <= c1; c++){
+                if(lowerBound(lat, lon, r, r, c, c) > miles){
+                    continue;
+                }
+                for(int i = cellStart[r * cols + c]; i < cellStart[r * cols + c + 1]; i++){
+                    int v = cellItems[i];
+                    double d = GeoMath.distance(lat, lon, graph.lat[v], graph.lon[v]);
+                    if(d <= miles){
+                        if(size == ids.length){
+                            ids = Arrays.copyOf(ids, size * 2);
+                            dists = Arrays.copyOf(dists, size * 2);
+                        }
+                        ids[size] = v;
+                        dists[size++] = d;
+                    }
+                }
+            }
+        }
+
+        int[] order = new int[size];
+        for(int i = 0; i < size; i++){
+            order[i] = i;
+        }
+        double[] byIndex = dists;
+        IntSort.sort(order, 0, size, (a, b) -> Double.compare(byIndex[a], byIndex[b]));
+        int[] result = new int[size];
+        for(int i = 0; i < size; i++){
+            result[i] = ids[order[i]];
+        }
+        return result;
+    }
+
+    /** Bounded max-heap of (distance, id) pairs that keeps the smallest distances offered. */
+    private static final class KBest {
+        final int[] ids;
+        private final double[] dists;
+        private int size;
+
+        KBest(int capacity) {
+            ids = new int[capacity];
+            dists = new double[capacity];
+        }
+
+        int capacity() {
+            return ids.length;
+        }
+
+        boolean full() {
+            return size == ids.length;
+        }
+
+        double worst() {
+            return dists[0];
+        }
+
+        void offer(int id, double dist) {
+            if(size < ids.length){
+                int i = size++;
+                ids[i] = id;
+                dists[i] = dist;
+                while(i > 0 && dists[(i - 1) / 2] < dists[i]){
+                    swap(i, (i - 1) / 2);
+                    i = (i - 1) / 2;
+                }
+            } else if(dist < dists[0]){
+                ids[0] = id;
+                dists[0] = dist;
+                siftDown(size);
+            }
+        }
+
+        /** Heap-sorts in place, leaving the ids nearest first; the heap is unusable afterwards. */
+        int[] sortedIds() {
+            for(int end = size - 1; end > 0; end--){
+                swap(0, end);
+                siftDown(end);
+            }
+            return ids;
+        }
+
+        private void siftDown(int limit) {
+            int i = 0;
+            while(2 * i + 1 < limit){
+                int child = 2 * i + 1;
+                if(child + 1 < limit && dists[child + 1] > dists[child]){
+                    child++;
+                }
+                if(dists[child] <= dists[i]){
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int t = ids[i];
+            ids[i] = ids[j];
+            ids[j] = t;
+            double d = dists[i];
+            dists[i] = dists[j];
+            dists[j] = d;
+        }
+    }
+}